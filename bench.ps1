@@ -0,0 +1,27 @@
+# Snake AI Benchmark Script
+# Compiles MyAgent.java with the benchmark harness and times the decision hot paths
+# on the recorded board states in bench/fixtures
+
+# -MaxDecideAlloc: fail if steady-state decideMove allocates more bytes per call
+param([int]$MeasureMs = 2000, [int]$MaxDecideAlloc = 256)
+
+Write-Host "🐍 Benchmarking Snake AI..." -ForegroundColor Green
+
+Set-Location $PSScriptRoot
+
+# Compile into a scratch directory so src/ keeps only the submission classes
+Write-Host "Compiling agent and benchmark..." -ForegroundColor Yellow
+New-Item -ItemType Directory -Force bench/out | Out-Null
+javac -d bench/out -cp "lib/*" src/MyAgent.java bench/AgentBenchmark.java
+
+if ($LASTEXITCODE -eq 0) {
+    Write-Host "✅ Compilation successful!" -ForegroundColor Green
+    java -cp "bench/out;lib/*" AgentBenchmark bench/fixtures $MeasureMs $MaxDecideAlloc
+    if ($LASTEXITCODE -ne 0) {
+        Write-Host "❌ decideMove allocation over $MaxDecideAlloc B/op!" -ForegroundColor Red
+        exit 1
+    }
+}
+else {
+    Write-Host "❌ Compilation failed!" -ForegroundColor Red
+}
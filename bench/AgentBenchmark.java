@@ -0,0 +1,294 @@
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// Latency and allocation benchmark for MyAgent's decision hot paths.
+//
+// Each file in the fixture directory is one recorded turn in the game
+// protocol: the header line followed by a single board state. For every
+// fixture the agent parses the turn, then each operation is warmed up and
+// timed in batches. Reported per operation: p50/p99 latency and bytes
+// allocated per call (from the thread allocation counter).
+//
+// The agent's methods are private, so they are reached through method
+// handles rather than test hooks in the agent.
+//
+// With maxDecideAllocBytes set, any fixture whose steady-state decideMove
+// allocates more than that per call fails the run (non-zero exit), so
+// garbage creeping back onto the hot path is caught.
+//
+// Usage: java -cp <classes>;lib/SnakeRunner.jar AgentBenchmark [fixtureDir] [measureMs] [maxDecideAllocBytes]
+public class AgentBenchmark {
+    private static final long WARMUP_NANOS = 1_000_000_000L;
+    private static final long BATCH_TARGET_NANOS = 20_000L;
+    private static final int MAX_SAMPLES = 1 << 16;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private static final long[] samples = new long[MAX_SAMPLES];
+    private static long maxDecideAlloc = -1;
+    private static final List<String> failures = new ArrayList<>();
+
+    private interface Op {
+        void run() throws Throwable;
+    }
+
+    public static void main(String[] args) throws Throwable {
+        Path dir = Paths.get(args.length > 0 ? args[0] : "bench/fixtures");
+        long measureNanos = (args.length > 1 ? Long.parseLong(args[1]) : 2000) * 1_000_000L;
+        if (args.length > 2)
+            maxDecideAlloc = Long.parseLong(args[2]);
+
+        List<Path> fixtures;
+        try (Stream<Path> files = Files.list(dir)) {
+            fixtures = files.filter(p -> p.toString().endsWith(".txt")).sorted().collect(Collectors.toList());
+        }
+        if (fixtures.isEmpty()) {
+            System.err.println("No fixtures in " + dir);
+            return;
+        }
+
+        System.out.printf("%-14s %-14s %10s %10s %12s %10s%n", "fixture", "op", "p50 us", "p99 us", "alloc B/op", "ops");
+        for (Path fixture : fixtures) {
+            String name = fixture.getFileName().toString().replace(".txt", "");
+            new Fixture(Files.readAllBytes(fixture)).runAll(name, measureNanos);
+        }
+
+        if (maxDecideAlloc >= 0) {
+            for (String failure : failures)
+                System.out.println("FAIL " + failure);
+            System.out.println(failures.isEmpty() ? "decideMove allocation within " + maxDecideAlloc + " B/op"
+                    : failures.size() + " fixture(s) over the decideMove allocation limit");
+            if (!failures.isEmpty())
+                System.exit(1);
+        }
+    }
+
+    // One agent loaded with one recorded turn, plus handles to its internals
+    private static class Fixture {
+        private static final MethodHandles.Lookup LOOKUP;
+        private static final Class<?> POINT, SNAKE, READER, SCRATCH;
+
+        static {
+            try {
+                LOOKUP = MethodHandles.privateLookupIn(MyAgent.class, MethodHandles.lookup());
+                POINT = Class.forName("MyAgent$Point");
+                SNAKE = Class.forName("MyAgent$Snake");
+                READER = Class.forName("MyAgent$ProtocolReader");
+                SCRATCH = Class.forName("MyAgent$ScoreScratch");
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        private final byte[] turn;
+        private final MyAgent agent = new MyAgent();
+        private final Object[] snakes;
+        private final Object me, myHead, apple;
+        private final int myIdx, lookahead;
+        private final Object[] candidates;
+
+        private final MethodHandle analyseBoard, decideMove, countSpace, findPathBFS, findPathAStar,
+                scorePosition, parseSnake, currentAppleValue, newLookaheadEpoch;
+        private final int appleValue;
+
+        Fixture(byte[] turn) throws Throwable {
+            this.turn = turn;
+            Object reader = LOOKUP.findConstructor(READER, MethodType.methodType(void.class, InputStream.class))
+                    .invoke((InputStream) new ByteArrayInputStream(turn));
+            method("readInit", void.class, READER).invoke(agent, reader);
+            if (!(boolean) method("readTurn", boolean.class, READER).invoke(agent, reader))
+                throw new IOException("fixture has no board state");
+
+            analyseBoard = method("analyseBoard", void.class);
+            decideMove = method("decideMove", int.class, SNAKE, SNAKE.arrayType(), int.class, POINT);
+            // Scoring helpers take the thread's scratch first; bind the agent's own
+            Object scratch = field("scratch", SCRATCH).invoke(agent);
+            countSpace = MethodHandles.insertArguments(
+                    method("countSpace", int.class, SCRATCH, POINT, SNAKE, SNAKE.arrayType(), int.class), 1, scratch);
+            findPathBFS = method("findPathBFS", int.class, POINT, POINT, SNAKE, SNAKE.arrayType(), int.class);
+            findPathAStar = method("findPathAStar", int.class, POINT, POINT, SNAKE, SNAKE.arrayType(), int.class);
+            scorePosition = MethodHandles.insertArguments(method("scorePosition", int.class, SCRATCH, POINT, SNAKE,
+                    SNAKE.arrayType(), int.class, POINT, int.class, int.class), 1, scratch);
+            Class<?> table = Class.forName("MyAgent$TranspositionTable");
+            Object lookaheadTable = LOOKUP.findGetter(SCRATCH, "lookahead", table).invoke(scratch);
+            newLookaheadEpoch = LOOKUP.findVirtual(table, "newEpoch", MethodType.methodType(void.class))
+                    .bindTo(lookaheadTable);
+            parseSnake = method("parseSnake", void.class, READER, SNAKE);
+            currentAppleValue = method("currentAppleValue", int.class);
+
+            snakes = (Object[]) field("snakes", SNAKE.arrayType()).invoke(agent);
+            apple = field("apple", POINT).invoke(agent);
+            myIdx = (int) field("mySnakeNum", int.class).invoke(agent);
+            me = snakes[myIdx];
+            @SuppressWarnings("unchecked")
+            List<Object> body = (List<Object>) LOOKUP.findGetter(SNAKE, "body", List.class).invoke(me);
+            myHead = body.get(0);
+            lookahead = (int) LOOKUP.findStaticGetter(MyAgent.class, "BASE_LOOKAHEAD", int.class).invoke();
+            analyseBoard.invoke(agent);
+            appleValue = (int) currentAppleValue.invoke(agent);
+            candidates = candidateMoves();
+        }
+
+        private static MethodHandle method(String name, Class<?> returns, Class<?>... params) throws ReflectiveOperationException {
+            MethodHandle handle = LOOKUP.findVirtual(MyAgent.class, name, MethodType.methodType(returns, params));
+            // Private classes cannot be named at call sites, so erase them to Object
+            MethodType erased = handle.type();
+            for (int i = 0; i < erased.parameterCount(); i++) {
+                if (!erased.parameterType(i).isPrimitive())
+                    erased = erased.changeParameterType(i, Object.class);
+            }
+            return handle.asType(erased);
+        }
+
+        private static MethodHandle field(String name, Class<?> type) throws ReflectiveOperationException {
+            return LOOKUP.findGetter(MyAgent.class, name, type);
+        }
+
+        // Cells next to our head, the positions decideMove scores each turn
+        private Object[] candidateMoves() throws Throwable {
+            MethodHandle newPoint = LOOKUP.findConstructor(POINT, MethodType.methodType(void.class, int.class, int.class));
+            MethodHandle x = LOOKUP.findGetter(POINT, "x", int.class);
+            MethodHandle y = LOOKUP.findGetter(POINT, "y", int.class);
+            int hx = (int) x.invoke(myHead), hy = (int) y.invoke(myHead);
+
+            List<Object> out = new ArrayList<>();
+            int[][] steps = { { 0, -1 }, { 0, 1 }, { -1, 0 }, { 1, 0 } };
+            for (int[] d : steps) {
+                Object p = newPoint.invoke(hx + d[0], hy + d[1]);
+                if ((int) countSpace.invoke(agent, p, me, (Object) snakes, myIdx) > 1)
+                    out.add(p);
+            }
+            if (out.isEmpty())
+                out.add(myHead);
+            return out.toArray();
+        }
+
+        void runAll(String name, long measureNanos) throws Throwable {
+            int[] next = { 0 };
+
+            Result decide = measure(() -> analyseBoard.invoke(agent),
+                    () -> decideMove.invoke(agent, me, (Object) snakes, myIdx, apple), measureNanos);
+            report(name, "decideMove", decide);
+            if (maxDecideAlloc >= 0 && decide.allocPerOp > maxDecideAlloc)
+                failures.add(name + ": decideMove allocates " + decide.allocPerOp + " B/op, limit " + maxDecideAlloc);
+            // Per-turn caches (space, territory, cut index, lookahead table) are
+            // dropped before each call, so these time the work a turn's first
+            // call does rather than a cache hit
+            Op freshTurn = () -> {
+                analyseBoard.invoke(agent);
+                newLookaheadEpoch.invoke();
+            };
+            report(name, "countSpace", measure(freshTurn, () -> {
+                Object pos = candidates[next[0]++ % candidates.length];
+                countSpace.invoke(agent, pos, me, (Object) snakes, myIdx);
+            }, measureNanos));
+            report(name, "findPathBFS", measure(null,
+                    () -> findPathBFS.invoke(agent, myHead, apple, me, (Object) snakes, myIdx), measureNanos));
+            report(name, "findPathAStar", measure(null,
+                    () -> findPathAStar.invoke(agent, myHead, apple, me, (Object) snakes, myIdx), measureNanos));
+            report(name, "scorePosition", measure(freshTurn, () -> {
+                Object pos = candidates[next[0]++ % candidates.length];
+                scorePosition.invoke(agent, pos, me, (Object) snakes, myIdx, apple, appleValue, lookahead);
+            }, measureNanos));
+
+            // Re-parses our own snake's line, which leaves the parsed state unchanged
+            Object reader = LOOKUP.findConstructor(READER, MethodType.methodType(void.class, InputStream.class))
+                    .invoke((InputStream) new LoopingStream(snakeLine(myIdx)));
+            report(name, "parseSnake", measure(null, () -> parseSnake.invoke(agent, reader, me), measureNanos));
+        }
+
+        private byte[] snakeLine(int idx) {
+            String[] lines = new String(turn, StandardCharsets.US_ASCII).split("\n");
+            return (lines[3 + idx] + "\n").getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    private static class Result {
+        long p50, p99, allocPerOp, ops;
+    }
+
+    // Warms op up, then times batches sized to about BATCH_TARGET_NANOS.
+    // setup (if any) runs before every batch, outside the timing, and forces
+    // batches of one call.
+    private static Result measure(Op setup, Op op, long measureNanos) throws Throwable {
+        long warmEnd = System.nanoTime() + WARMUP_NANOS;
+        long warmCalls = 0, warmStart = System.nanoTime();
+        while (System.nanoTime() < warmEnd) {
+            if (setup != null)
+                setup.run();
+            op.run();
+            warmCalls++;
+        }
+        long perCall = Math.max(1, (System.nanoTime() - warmStart) / warmCalls);
+        int batch = setup != null ? 1 : (int) Math.max(1, Math.min(10_000, BATCH_TARGET_NANOS / perCall));
+
+        long thread = Thread.currentThread().getId();
+        long allocated = 0;
+        int n = 0;
+        long end = System.nanoTime() + measureNanos;
+        while (n < MAX_SAMPLES && System.nanoTime() < end) {
+            if (setup != null)
+                setup.run();
+            long a0 = THREADS.getThreadAllocatedBytes(thread);
+            long t0 = System.nanoTime();
+            for (int k = 0; k < batch; k++)
+                op.run();
+            long t1 = System.nanoTime();
+            allocated += THREADS.getThreadAllocatedBytes(thread) - a0;
+            samples[n++] = (t1 - t0) / batch;
+        }
+
+        Arrays.sort(samples, 0, n);
+        Result r = new Result();
+        r.ops = (long) n * batch;
+        r.p50 = samples[n / 2];
+        r.p99 = samples[Math.min(n - 1, (int) (n * 0.99))];
+        r.allocPerOp = allocated / r.ops;
+        return r;
+    }
+
+    private static void report(String fixture, String op, Result r) {
+        System.out.printf("%-14s %-14s %10.2f %10.2f %12d %10d%n", fixture, op, r.p50 / 1000.0, r.p99 / 1000.0,
+                r.allocPerOp, r.ops);
+    }
+
+    // Endless repetition of one input, so a reader can parse the same line forever
+    private static class LoopingStream extends InputStream {
+        private final byte[] data;
+        private int pos = 0;
+
+        LoopingStream(byte[] data) {
+            this.data = data;
+        }
+
+        @Override
+        public int read() {
+            int b = data[pos];
+            pos = (pos + 1) % data.length;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buf, int off, int len) {
+            for (int i = 0; i < len; i++) {
+                buf[off + i] = data[pos];
+                pos = (pos + 1) % data.length;
+            }
+            return len;
+        }
+    }
+}
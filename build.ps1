@@ -19,7 +19,7 @@ if ($LASTEXITCODE -eq 0) {
     
     # Create JAR file
     Write-Host "Creating JAR file..." -ForegroundColor Yellow
-    jar cfm MyAgent.jar manifest.txt MyAgent.class MyAgent`$Point.class MyAgent`$Snake.class MyAgent`$SnakeProfile.class MyAgent`$PathNode.class
+    jar cfm MyAgent.jar manifest.txt MyAgent*.class
     
     if ($LASTEXITCODE -eq 0) {
         Write-Host "✅ JAR created successfully!" -ForegroundColor Green
@@ -29,6 +29,21 @@ if ($LASTEXITCODE -eq 0) {
         Copy-Item MyAgent.jar "../submissions/MyAgent_$timestamp.jar"
         
         Write-Host "✅ Copied to submissions/MyAgent_$timestamp.jar" -ForegroundColor Green
+
+        # AppCDS: one run on a recorded board loads the agent's classes and the
+        # JVM dumps them at exit, so later starts skip loading and verifying them.
+        # The archive only applies to a JVM started with the same classpath.
+        Write-Host "Creating class-data-sharing archive..." -ForegroundColor Yellow
+        $classpath = "../submissions/MyAgent_$timestamp.jar;../lib/*"
+        Get-Content ../bench/fixtures/50x50-mid.txt -Raw |
+            java "-XX:ArchiveClassesAtExit=../submissions/MyAgent_$timestamp.jsa" -cp $classpath MyAgent | Out-Null
+
+        if ($LASTEXITCODE -eq 0) {
+            Write-Host "✅ Run with -XX:SharedArchiveFile=submissions/MyAgent_$timestamp.jsa -cp `"$classpath`"" -ForegroundColor Green
+        }
+        else {
+            Write-Host "⚠️ Archive not created; the jar still works without it" -ForegroundColor Yellow
+        }
         Write-Host "🎮 Ready to submit!" -ForegroundColor Cyan
     }
     else {
@@ -0,0 +1,21 @@
+# Snake AI Simulator Script
+# Compiles MyAgent.java with the headless simulator and plays self-play games
+# using snake_config.txt. Extra arguments go to the simulator, e.g.
+#   .\sim.ps1 -games 500 self submissions/beatMedium.jar
+
+Write-Host "🐍 Simulating Snake AI games..." -ForegroundColor Green
+
+Set-Location $PSScriptRoot
+
+# Compile into a scratch directory so src/ keeps only the submission classes
+Write-Host "Compiling agent and simulator..." -ForegroundColor Yellow
+New-Item -ItemType Directory -Force sim/out | Out-Null
+javac -d sim/out -cp "lib/*" src/MyAgent.java sim/GameSimulator.java sim/ReplayTool.java
+
+if ($LASTEXITCODE -eq 0) {
+    Write-Host "✅ Compilation successful!" -ForegroundColor Green
+    java -cp "sim/out;lib/*" GameSimulator @args
+}
+else {
+    Write-Host "❌ Compilation failed!" -ForegroundColor Red
+}
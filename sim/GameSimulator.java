@@ -0,0 +1,641 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarFile;
+
+// Headless game simulator for self-play.
+//
+// Plays the rules MyAgent is written against (simultaneous moves, growth,
+// decaying apples, head-on and body collisions, kills and respawn) using the
+// SnakeRunner defaults for anything snake_config.txt does not set. Agents get
+// the same text protocol as in a real game, but there is no wall-clock pacing:
+// a turn is resolved as soon as every agent has replied. Games run in parallel
+// on a thread pool.
+//
+// Usage: java -cp <classes>;lib/SnakeRunner.jar GameSimulator [options] agent...
+//   -config <file>   game settings (default snake_config.txt)
+//   -games <n>       number of games (default 100)
+//   -threads <n>     games played at once (default: available processors)
+//   -turns <n>       turns per game (default duration * 1000 / speed)
+//   -seed <n>        seed of game 0, game g using n + g (default random_seed)
+//   -v               print a line for every finished game
+// An agent is "self" for an in-process MyAgent, a jar to run with java -jar,
+// or any other command line. Agents take the snake slots in order, repeating
+// the list when it is shorter than num_snakes.
+public class GameSimulator {
+    // SnakeRunner defaults that snake_config.txt does not override
+    private static final int STARTING_LENGTH = 5;
+    private static final int APPLE_GROWTH = 5;
+    private static final int APPLE_TIME_LIMIT = 200;
+    private static final int RESPAWN_TURNS = 1;
+    private static final long REPLY_TIMEOUT_MS = 10_000;
+
+    private static final int[] DX = { 0, 0, -1, 1 };
+    private static final int[] DY = { -1, 1, 0, 0 };
+
+    public static void main(String[] args) throws Exception {
+        String configPath = "snake_config.txt";
+        int games = 100, threads = Runtime.getRuntime().availableProcessors(), turns = -1;
+        boolean verbose = false;
+        Long seedOption = null;
+        List<String> agents = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-config": configPath = args[++i]; break;
+                case "-games": games = Integer.parseInt(args[++i]); break;
+                case "-threads": threads = Integer.parseInt(args[++i]); break;
+                case "-turns": turns = Integer.parseInt(args[++i]); break;
+                case "-seed": seedOption = Long.parseLong(args[++i]); break;
+                case "-v": verbose = true; break;
+                default: agents.add(args[i]);
+            }
+        }
+        if (agents.isEmpty())
+            agents.add("self");
+
+        Settings settings = Settings.load(configPath);
+        int gameTurns = turns > 0 ? turns : settings.duration * 1000 / settings.speed;
+        if (seedOption != null)
+            settings.seed = seedOption;
+        long baseSeed = settings.seed != null ? settings.seed : System.nanoTime();
+        String[] seats = new String[settings.numSnakes];
+        for (int i = 0; i < seats.length; i++)
+            seats[i] = agents.get(i % agents.size());
+
+        Map<String, Tally> tallies = new LinkedHashMap<>();
+        for (String seat : seats)
+            tallies.putIfAbsent(seat, new Tally());
+
+        boolean printGames = verbose;
+        System.out.printf("%d games of %d turns on %dx%d, %d snakes, %d threads%n", games, gameTurns,
+                settings.width, settings.height, settings.numSnakes, threads);
+        long start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<Game>> results = new ArrayList<>();
+        for (int g = 0; g < games; g++) {
+            long seed = baseSeed + g;
+            int id = g;
+            results.add(pool.submit(() -> {
+                Game game = new Game(settings, seats, new Random(seed));
+                game.play(gameTurns);
+                if (printGames)
+                    System.out.println("game " + id + " (seed " + seed + "): " + game.summary());
+                return game;
+            }));
+        }
+        // A game that throws fails the run; stop the rest so the JVM can exit
+        try {
+            for (Future<Game> result : results) {
+                Game game = result.get();
+                int winner = game.winner();
+                for (int i = 0; i < seats.length; i++)
+                    tallies.get(seats[i]).add(game, i, i == winner);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("%-32s %6s %6s %9s %9s %9s %9s%n", "agent", "seats", "wins", "longest", "final", "kills",
+                "deaths");
+        for (Map.Entry<String, Tally> e : tallies.entrySet()) {
+            Tally t = e.getValue();
+            System.out.printf("%-32s %6d %6d %9.2f %9.2f %9.2f %9.2f%n", e.getKey(), t.seats, t.wins,
+                    t.longest / (double) t.seats, t.finalLength / (double) t.seats, t.kills / (double) t.seats,
+                    t.deaths / (double) t.seats);
+        }
+        System.out.printf("%.1f s, %.0f games/hour%n", seconds, games * 3600 / seconds);
+    }
+
+    private static class Settings {
+        int width = 50, height = 50, duration = 300, speed = 50, numSnakes = 4;
+        double decayRate = 0.1;
+        Long seed;
+
+        static Settings load(String path) throws IOException {
+            Settings s = new Settings();
+            for (String raw : Files.readAllLines(Paths.get(path))) {
+                String line = raw.trim();
+                if (line.isEmpty() || line.startsWith("#"))
+                    continue;
+                String[] kv = line.split("\\s+");
+                if (kv.length < 2)
+                    continue;
+                switch (kv[0]) {
+                    case "game_width": s.width = Integer.parseInt(kv[1]); break;
+                    case "game_height": s.height = Integer.parseInt(kv[1]); break;
+                    case "decay_rate": s.decayRate = Double.parseDouble(kv[1]); break;
+                    case "duration": s.duration = Integer.parseInt(kv[1]); break;
+                    case "speed": s.speed = Integer.parseInt(kv[1]); break;
+                    case "num_snakes": s.numSnakes = Integer.parseInt(kv[1]); break;
+                    case "random_seed": s.seed = kv[1].equals("null") ? null : Long.parseLong(kv[1]); break;
+                    default: break;
+                }
+            }
+            return s;
+        }
+    }
+
+    private static class Tally {
+        int seats, wins;
+        long longest, finalLength, kills, deaths;
+
+        synchronized void add(Game game, int i, boolean won) {
+            seats++;
+            if (won)
+                wins++;
+            longest += game.longest[i];
+            finalLength += game.length(i);
+            kills += game.kills[i];
+            deaths += game.deaths[i];
+        }
+    }
+
+    // One game. Bodies are ring buffers of cell indices (head at headSlot)
+    // and grid counts the segments on each cell.
+    private static class Game {
+        final Settings cfg;
+        final Random random;
+        final int width, height, n;
+        final int[] grid, owner;
+        final int[][] body;
+        final int mask;
+        final int[] headSlot, size, growth, kills, deaths, longest, deadFor;
+        final boolean[] alive;
+        final Player[] players;
+        int apple = -1, appleAge;
+
+        Game(Settings cfg, String[] seats, Random random) throws IOException {
+            this.cfg = cfg;
+            this.random = random;
+            width = cfg.width;
+            height = cfg.height;
+            n = seats.length;
+            grid = new int[width * height];
+            owner = new int[width * height];
+            int capacity = Integer.highestOneBit(Math.max(2, width * height - 1)) << 1;
+            mask = capacity - 1;
+            body = new int[n][capacity];
+            headSlot = new int[n];
+            size = new int[n];
+            growth = new int[n];
+            kills = new int[n];
+            deaths = new int[n];
+            longest = new int[n];
+            deadFor = new int[n];
+            alive = new boolean[n];
+            players = new Player[n];
+            for (int i = 0; i < n; i++)
+                players[i] = Player.of(seats[i]);
+        }
+
+        void play(int turns) throws IOException {
+            try {
+                for (int i = 0; i < n; i++)
+                    spawn(i);
+                spawnApple();
+                String header = n + " " + width + " " + height + " 1\n";
+                for (Player p : players)
+                    p.send(header);
+
+                int[] moves = new int[n];
+                for (int t = 0; t < turns; t++) {
+                    String apples = (apple % width) + " " + (apple / width) + "\n";
+                    String snakes = snakeLines();
+                    for (int i = 0; i < n; i++)
+                        players[i].send(apples + i + "\n" + snakes);
+                    for (int i = 0; i < n; i++)
+                        moves[i] = parseMove(players[i].receive());
+                    step(moves);
+                }
+                for (Player p : players)
+                    p.send("Game Over\n");
+            } finally {
+                for (Player p : players)
+                    p.close();
+            }
+        }
+
+        // One simultaneous move. Tails retract first (unless growing), then
+        // every head advances. A head off the board or on a body dies, and a
+        // body hit credits that body's snake with a kill; heads meeting on one
+        // cell both die without a kill.
+        void step(int[] moves) {
+            int[] next = new int[n], hit = new int[n];
+            for (int i = 0; i < n; i++) {
+                if (!alive[i])
+                    continue;
+                int dir = resolve(moves[i], facing(i));
+                int x = head(i) % width + DX[dir], y = head(i) / width + DY[dir];
+                next[i] = (x < 0 || y < 0 || x >= width || y >= height) ? -1 : y * width + x;
+                if (growth[i] > 0) {
+                    growth[i]--;
+                } else {
+                    grid[tail(i)]--;
+                    size[i]--;
+                }
+            }
+            for (int i = 0; i < n; i++) {
+                if (alive[i])
+                    hit[i] = next[i] >= 0 && grid[next[i]] > 0 ? owner[next[i]] : -1;
+            }
+            for (int i = 0; i < n; i++) {
+                if (!alive[i] || next[i] < 0)
+                    continue;
+                headSlot[i] = (headSlot[i] - 1) & mask;
+                body[i][headSlot[i]] = next[i];
+                size[i]++;
+                grid[next[i]]++;
+                owner[next[i]] = i;
+            }
+
+            boolean[] dies = new boolean[n];
+            for (int i = 0; i < n; i++) {
+                if (!alive[i])
+                    continue;
+                boolean headOn = false;
+                for (int j = 0; j < n; j++) {
+                    if (j != i && alive[j] && next[j] >= 0 && next[j] == next[i])
+                        headOn = true;
+                }
+                if (next[i] < 0 || headOn || hit[i] >= 0) {
+                    dies[i] = true;
+                    if (!headOn && hit[i] >= 0 && hit[i] != i)
+                        kills[hit[i]]++;
+                }
+            }
+            for (int i = 0; i < n; i++) {
+                if (!dies[i])
+                    continue;
+                kill(i);
+                // A body the head landed on still holds the cell
+                if (next[i] >= 0 && grid[next[i]] > 0 && hit[i] >= 0)
+                    owner[next[i]] = hit[i];
+            }
+
+            boolean eaten = false;
+            for (int i = 0; i < n; i++) {
+                if (alive[i] && head(i) == apple) {
+                    eat(i);
+                    eaten = true;
+                }
+            }
+            appleAge++;
+            if (eaten || appleAge >= APPLE_TIME_LIMIT)
+                spawnApple();
+
+            for (int i = 0; i < n; i++) {
+                if (alive[i]) {
+                    longest[i] = Math.max(longest[i], length(i));
+                } else if (++deadFor[i] > RESPAWN_TURNS) {
+                    spawn(i);
+                }
+            }
+        }
+
+        // Decayed reward, floored at minus the full reward. A negative apple
+        // shrinks the snake, or kills it past the floor or below length 2.
+        private void eat(int i) {
+            int raw = (int) Math.ceil(APPLE_GROWTH - appleAge * cfg.decayRate);
+            int reward = Math.max(raw, -APPLE_GROWTH);
+            if (reward >= 0) {
+                growth[i] += reward;
+            } else if (raw < -APPLE_GROWTH || length(i) + reward < 2) {
+                kill(i);
+            } else {
+                int shrink = -reward;
+                int fromGrowth = Math.min(shrink, growth[i]);
+                growth[i] -= fromGrowth;
+                for (int k = fromGrowth; k < shrink; k++) {
+                    grid[tail(i)]--;
+                    size[i]--;
+                }
+            }
+        }
+
+        private void kill(int i) {
+            for (int k = 0; k < size[i]; k++)
+                grid[body[i][(headSlot[i] + k) & mask]]--;
+            alive[i] = false;
+            size[i] = growth[i] = 0;
+            deadFor[i] = 0;
+            deaths[i]++;
+        }
+
+        private void spawn(int i) {
+            for (int attempt = 0; attempt < 10_000; attempt++) {
+                int x = random.nextInt(width), y = random.nextInt(height), dir = random.nextInt(4);
+                boolean free = true;
+                for (int k = 0; k < STARTING_LENGTH && free; k++) {
+                    int cx = x - DX[dir] * k, cy = y - DY[dir] * k;
+                    free = cx >= 0 && cy >= 0 && cx < width && cy < height && grid[cy * width + cx] == 0
+                            && cy * width + cx != apple;
+                }
+                if (!free)
+                    continue;
+                headSlot[i] = 0;
+                size[i] = STARTING_LENGTH;
+                growth[i] = 0;
+                for (int k = 0; k < STARTING_LENGTH; k++) {
+                    int cell = (y - DY[dir] * k) * width + (x - DX[dir] * k);
+                    body[i][k] = cell;
+                    grid[cell]++;
+                    owner[cell] = i;
+                }
+                alive[i] = true;
+                longest[i] = Math.max(longest[i], STARTING_LENGTH);
+                return;
+            }
+        }
+
+        private void spawnApple() {
+            do {
+                apple = random.nextInt(width * height);
+            } while (grid[apple] > 0);
+            appleAge = 0;
+        }
+
+        int head(int i) {
+            return body[i][headSlot[i]];
+        }
+
+        int tail(int i) {
+            return body[i][(headSlot[i] + size[i] - 1) & mask];
+        }
+
+        int length(int i) {
+            return alive[i] ? size[i] + growth[i] : 0;
+        }
+
+        private int facing(int i) {
+            int d = head(i) - body[i][(headSlot[i] + 1) & mask];
+            return d == -width ? 0 : d == width ? 1 : d == -1 ? 2 : 3;
+        }
+
+        // Absolute moves 0-3, relative 4-6 (left, straight, right); anything
+        // else keeps the current heading
+        private static int resolve(int move, int facing) {
+            if (move >= 0 && move <= 3)
+                return move;
+            int[] left = { 2, 3, 1, 0 }, right = { 3, 2, 0, 1 };
+            if (move == 4)
+                return left[facing];
+            if (move == 6)
+                return right[facing];
+            return facing;
+        }
+
+        private static int parseMove(String reply) {
+            if (reply == null)
+                return -1;
+            try {
+                return Integer.parseInt(reply.trim());
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+
+        // "alive length kills head kinks... tail" per snake, as SnakeRunner sends
+        private String snakeLines() {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < n; i++) {
+                if (!alive[i]) {
+                    sb.append("dead 0 ").append(kills[i]).append('\n');
+                    continue;
+                }
+                sb.append("alive ").append(length(i)).append(' ').append(kills[i]);
+                appendPoint(sb, head(i));
+                for (int k = 1; k < size[i] - 1; k++) {
+                    int prev = body[i][(headSlot[i] + k - 1) & mask];
+                    int cur = body[i][(headSlot[i] + k) & mask];
+                    int nxt = body[i][(headSlot[i] + k + 1) & mask];
+                    if (cur - prev != nxt - cur)
+                        appendPoint(sb, cur);
+                }
+                appendPoint(sb, tail(i));
+                sb.append('\n');
+            }
+            return sb.toString();
+        }
+
+        private void appendPoint(StringBuilder sb, int cell) {
+            sb.append(' ').append(cell % width).append(',').append(cell / width);
+        }
+
+        // Longest length achieved, then kills, then lowest index
+        int winner() {
+            int best = 0;
+            for (int i = 1; i < n; i++) {
+                if (longest[i] > longest[best] || (longest[i] == longest[best] && kills[i] > kills[best]))
+                    best = i;
+            }
+            return best;
+        }
+
+        String summary() {
+            StringBuilder sb = new StringBuilder("winner " + winner() + ";");
+            for (int i = 0; i < n; i++)
+                sb.append(" [longest ").append(longest[i]).append(", kills ").append(kills[i]).append(", deaths ")
+                        .append(deaths[i]).append(']');
+            return sb.toString();
+        }
+    }
+
+    // An agent speaking the text protocol: states in, one move line out per turn
+    private interface Player {
+        void send(String text) throws IOException;
+
+        String receive() throws IOException; // null if the agent gave no reply
+
+        void close();
+
+        static Player of(String spec) throws IOException {
+            if (spec.equals("self"))
+                return new InProcessPlayer();
+            if (spec.endsWith(".jar")) {
+                // Submitted jars name their main class but not the runner they extend
+                String main;
+                try (JarFile jar = new JarFile(spec)) {
+                    main = jar.getManifest().getMainAttributes().getValue("Main-Class");
+                }
+                String classpath = spec + File.pathSeparator + Paths.get("lib", "SnakeRunner.jar");
+                return new ProcessPlayer(Arrays.asList("java", "-cp", classpath, main));
+            }
+            return new ProcessPlayer(Arrays.asList(spec.trim().split("\\s+")));
+        }
+    }
+
+    // A MyAgent on its own thread, connected by in-memory queues
+    private static class InProcessPlayer implements Player {
+        private static final byte[] END = new byte[0];
+        private static final String GONE = new String("gone");
+        private final BlockingQueue<byte[]> input = new LinkedBlockingQueue<>();
+        private final BlockingQueue<String> replies = new LinkedBlockingQueue<>();
+
+        InProcessPlayer() {
+            InputStream in = new QueueInputStream(input);
+            PrintStream out = new PrintStream(new LineOutputStream(replies), false);
+            Thread thread = new Thread(() -> {
+                try {
+                    new MyAgent().play(in, out);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                } finally {
+                    replies.add(GONE);
+                }
+            }, "agent");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        @Override
+        public void send(String text) {
+            input.add(text.getBytes(StandardCharsets.US_ASCII));
+        }
+
+        @Override
+        public String receive() throws IOException {
+            try {
+                String reply = replies.poll(REPLY_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                if (reply == GONE) {
+                    replies.add(GONE); // the agent has exited; answer every later turn at once
+                    return null;
+                }
+                return reply;
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public void close() {
+            input.add(END);
+        }
+
+        private static class QueueInputStream extends InputStream {
+            private final BlockingQueue<byte[]> chunks;
+            private byte[] chunk = new byte[0];
+            private int pos = 0;
+
+            QueueInputStream(BlockingQueue<byte[]> chunks) {
+                this.chunks = chunks;
+            }
+
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] buf, int off, int len) throws IOException {
+                if (chunk == END)
+                    return -1;
+                if (pos == chunk.length) {
+                    try {
+                        chunk = chunks.take();
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                    pos = 0;
+                    if (chunk == END)
+                        return -1;
+                }
+                int count = Math.min(len, chunk.length - pos);
+                System.arraycopy(chunk, pos, buf, off, count);
+                pos += count;
+                return count;
+            }
+        }
+
+        private static class LineOutputStream extends OutputStream {
+            private final BlockingQueue<String> lines;
+            private final StringBuilder line = new StringBuilder();
+
+            LineOutputStream(BlockingQueue<String> lines) {
+                this.lines = lines;
+            }
+
+            @Override
+            public void write(int b) {
+                if (b == '\n') {
+                    lines.add(line.toString());
+                    line.setLength(0);
+                } else {
+                    line.append((char) b);
+                }
+            }
+        }
+    }
+
+    // An external agent process, e.g. a submitted jar
+    private static class ProcessPlayer implements Player {
+        private final Process process;
+        private final Writer in;
+        private final BufferedReader out;
+        private boolean gone;
+
+        ProcessPlayer(List<String> command) throws IOException {
+            process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.DISCARD).start();
+            in = new OutputStreamWriter(process.getOutputStream(), StandardCharsets.US_ASCII);
+            out = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.US_ASCII));
+        }
+
+        @Override
+        public void send(String text) {
+            if (gone)
+                return;
+            try {
+                in.write(text);
+                in.flush();
+            } catch (IOException e) {
+                gone = true; // the agent has exited; it makes no further moves
+            }
+        }
+
+        @Override
+        public String receive() throws IOException {
+            if (gone)
+                return null;
+            String reply = out.readLine();
+            gone = reply == null;
+            return reply;
+        }
+
+        @Override
+        public void close() {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // the agent has already exited
+            }
+            try {
+                if (!process.waitFor(1, TimeUnit.SECONDS))
+                    process.destroyForcibly();
+            } catch (InterruptedException e) {
+                process.destroyForcibly();
+            }
+        }
+    }
+}
@@ -0,0 +1,155 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandles;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+// Reads turn logs written with -Dsnake.record=<file>.
+//
+// By default the log is fed back through a fresh MyAgent with the recorded
+// seed, and every turn where the replayed move or deciding branch differs
+// from the recording is listed. Timing-dependent modes (anytime, search,
+// speculation) are left off, so a log recorded with them may legitimately
+// diverge.
+//
+// Usage: java -cp <classes>;lib/SnakeRunner.jar ReplayTool <log> [option]
+//   -dump                  list every turn: move, branch, decision time
+//   -fixture <turn> <file> write one turn as a bench/fixtures board state
+public class ReplayTool {
+    private static final int MAGIC = 0x534E4B31;
+
+    public static void main(String[] args) throws Throwable {
+        if (args.length == 0) {
+            System.err.println("usage: ReplayTool <log> [-dump | -fixture <turn> <file>]");
+            return;
+        }
+        Log log = Log.read(Paths.get(args[0]));
+        String[] branches = branchNames();
+
+        if (args.length > 1 && args[1].equals("-dump")) {
+            for (int t = 0; t < log.turns.size(); t++) {
+                Turn turn = log.turns.get(t);
+                System.out.printf("%6d  move %d  %-12s %8d us%n", t + 1, turn.move, branches[turn.branch], turn.micros);
+            }
+            return;
+        }
+        if (args.length > 3 && args[1].equals("-fixture")) {
+            int t = Integer.parseInt(args[2]);
+            try (OutputStream out = Files.newOutputStream(Paths.get(args[3]))) {
+                out.write(log.header);
+                out.write(log.turns.get(t - 1).input);
+            }
+            return;
+        }
+
+        Log replayed = replay(log);
+        int diverged = 0;
+        int[] branchCount = new int[branches.length];
+        for (int t = 0; t < log.turns.size(); t++) {
+            Turn was = log.turns.get(t);
+            branchCount[was.branch]++;
+            Turn now = t < replayed.turns.size() ? replayed.turns.get(t) : null;
+            if (now == null || now.move != was.move || now.branch != was.branch) {
+                diverged++;
+                System.out.printf("turn %d: recorded %d (%s), replayed %s%n", t + 1, was.move, branches[was.branch],
+                        now == null ? "nothing" : now.move + " (" + branches[now.branch] + ")");
+            }
+        }
+
+        long[] micros = log.turns.stream().mapToLong(turn -> turn.micros).sorted().toArray();
+        System.out.printf("%d turns, %d diverged, seed %d%n", log.turns.size(), diverged, log.seed);
+        if (micros.length > 0)
+            System.out.printf("recorded decision time: p50 %d us, p99 %d us, max %d us%n", micros[micros.length / 2],
+                    micros[Math.min(micros.length - 1, (int) (micros.length * 0.99))], micros[micros.length - 1]);
+        for (int b = 0; b < branches.length; b++) {
+            if (branchCount[b] > 0)
+                System.out.printf("  %-12s %6d%n", branches[b], branchCount[b]);
+        }
+    }
+
+    // Runs the recorded input through a new agent, recording the replay to a
+    // scratch log so both runs are compared in the same format
+    private static Log replay(Log log) throws IOException {
+        ByteArrayOutputStream input = new ByteArrayOutputStream();
+        input.write(log.header);
+        for (Turn turn : log.turns)
+            input.write(turn.input);
+        input.write("Game Over\n".getBytes(StandardCharsets.US_ASCII));
+
+        Path scratch = Files.createTempFile("replay", ".snk");
+        try {
+            System.setProperty("snake.seed", Long.toString(log.seed));
+            System.setProperty("snake.record", scratch.toString());
+            new MyAgent().play(new ByteArrayInputStream(input.toByteArray()),
+                    new PrintStream(OutputStream.nullOutputStream()));
+            return Log.read(scratch);
+        } finally {
+            System.clearProperty("snake.record");
+            Files.deleteIfExists(scratch);
+        }
+    }
+
+    private static String[] branchNames() throws ReflectiveOperationException {
+        try {
+            return (String[]) MethodHandles.privateLookupIn(MyAgent.class, MethodHandles.lookup())
+                    .findStaticGetter(MyAgent.class, "BRANCH_NAMES", String[].class).invoke();
+        } catch (ReflectiveOperationException e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class Turn {
+        byte[] input;
+        int move, branch, micros;
+    }
+
+    private static class Log {
+        long seed;
+        byte[] header;
+        final List<Turn> turns = new ArrayList<>();
+
+        // Reads up to the end marker, a zero length (never written), or a
+        // record cut short by the process being killed
+        static Log read(Path path) throws IOException {
+            ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(path));
+            Log log = new Log();
+            if (buf.getInt() != MAGIC)
+                throw new IOException(path + " is not a turn log");
+            log.seed = buf.getLong();
+            log.header = bytes(buf, buf.getInt());
+            try {
+                while (buf.remaining() >= 4) {
+                    int length = buf.getInt();
+                    if (length <= 0)
+                        break;
+                    Turn turn = new Turn();
+                    turn.input = bytes(buf, length);
+                    turn.move = buf.get();
+                    turn.branch = buf.get();
+                    turn.micros = buf.getInt();
+                    log.turns.add(turn);
+                }
+            } catch (BufferUnderflowException e) {
+                // truncated final record
+            }
+            return log;
+        }
+
+        private static byte[] bytes(ByteBuffer buf, int length) {
+            byte[] out = new byte[length];
+            buf.get(out);
+            return out;
+        }
+    }
+}
@@ -1,6 +1,23 @@
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
 import za.ac.wits.snake.DevelopmentAgent;
 
 /**
@@ -22,168 +39,575 @@ public class MyAgent extends DevelopmentAgent {
 
     private int[] dx = { 0, 0, -1, 1 };
     private int[] dy = { -1, 1, 0, 0 };
-    private boolean[][] visited;
     private int boardWidth, boardHeight;
 
     // Performance tracking for 50ms budget
-    private long moveStartTime = 0;
+    private long moveStartTime = 0; // System.nanoTime() when the turn's first line arrived
     private static final long MAX_DECISION_TIME_MS = 45; // Leave 5ms safety margin
 
+    // Anytime mode (-Dsnake.anytime=true): after the base lookahead completes,
+    // keep deepening it until -Dsnake.deadlineMs (default MAX_DECISION_TIME_MS)
+    private static final boolean ANYTIME = Boolean.getBoolean("snake.anytime");
+    private static final long DECISION_DEADLINE_MS = Long.getLong("snake.deadlineMs", MAX_DECISION_TIME_MS);
+    private static final int BASE_LOOKAHEAD = 2, MAX_LOOKAHEAD = 12;
+    // Transposition tables hold 2^snake.ttBits entries each: one for
+    // projectFutureSpace, one per search worker
+    private static final int TT_BITS = Integer.getInteger("snake.ttBits", 16);
+    private static final int BASE_TRAP_STEPS = 3, MAX_TRAP_STEPS = 12;
+    private static final int CLOCK_CHECK_INTERVAL = 16;
+    private long searchDeadline = Long.MAX_VALUE;
+    private int depthReached = 0;
+    // Lookahead table, deadline check and countSpace tally for this thread
+    private ScoreScratch scratch;
+
+    // Parallel mode (-Dsnake.parallel=true): findBestSafeMove scores its
+    // candidate moves concurrently on SEARCH_POOL, each pool thread with its
+    // own scratch and copy of the turn's board. Scores are the same as
+    // sequential scoring, so the chosen move is too.
+    private static final boolean PARALLEL = Boolean.getBoolean("snake.parallel");
+    private ThreadLocal<ScoreScratch> scorers;
+    private final List<ScoreScratch> allScorers = Collections.synchronizedList(new ArrayList<>());
+    private final int[] moveScores = new int[4], moveSpaceCalls = new int[4];
+    private final boolean[] moveAborted = new boolean[4];
+
     private int turnCount = 0;
-    private Point lastApple = null;
+    private int lastAppleX = -1, lastAppleY = -1;
     private int appleTurnCounter = 0;
 
-    private Map<Integer, SnakeProfile> profiles = new HashMap<>();
-    private Random random = new Random();
-    private List<Point> hamiltonCycle;
-    private Map<Point, Integer> spaceCache = new HashMap<>();
-    private int lastCacheTurn = -1;
+    // Stats mode (-Dsnake.stats=true): timing summary on stderr at game over
+    private static final boolean STATS = Boolean.getBoolean("snake.stats");
+    private long readToWriteTotalNanos = 0, readToWriteMaxNanos = 0;
+    private int bodiesAdvanced = 0, bodiesRebuilt = 0;
+    // Per-branch decision latency and per-turn helper work, plus turns whose
+    // read-to-write time exceeded -Dsnake.budgetMs (default MAX_DECISION_TIME_MS)
+    private static final long BUDGET_NANOS = Long.getLong("snake.budgetMs", MAX_DECISION_TIME_MS) * 1_000_000L;
+    private final Histogram[] branchMicros = new Histogram[BRANCH_NAMES.length];
+    private final Histogram countSpacePerTurn = new Histogram(), astarExpandedPerTurn = new Histogram();
+    private int astarExpanded = 0, overBudgetTurns = 0;
+    // Bytes allocated by the decision thread per turn (the GC beans are read
+    // outside that window), and collector time that overlapped a decision
+    private final Histogram allocatedPerTurn = new Histogram();
+    private long turnAllocStart, turnGcMillisStart, turnGcCountStart;
+    private long gcMillisTotal = 0, gcMillisMax = 0;
+    private int gcTurns = 0;
+    private int[] kinkBuffer = new int[64];
+    private final byte[] replyBuffer = new byte[12];
+
+    // Indexed by snake and kept for the whole game, like the opponent model
+    private SnakeProfile[] profiles;
+    private OpponentModel opponents;
+    private int[] heads;
+    private int modelApple = -1;
+    // Seeds the random playouts of mcts mode, which reseed from seed + turn
+    // number, so a turn replays the same given the same input and playout
+    // count (-Dsnake.seed to fix it)
+    private final long seed = Long.getLong("snake.seed", System.nanoTime());
+    // Snakes covering at least 1/CYCLE_BOUND_FRACTION of the cycle stay cycle-safe
+    private HamiltonCycle cycle;
+    private static final int CYCLE_BOUND_FRACTION = 4;
+
+    // Per-turn occupancy grid indexed by y * boardWidth + x.
+    // Each entry packs (owner + 1) << OCC_OWNER_SHIFT | turns until the segment
+    // leaves the cell (1 = tail, which moves this turn). 0 means empty.
+    private static final int OCC_OWNER_SHIFT = 16;
+    private static final int OCC_TTL_MASK = (1 << OCC_OWNER_SHIFT) - 1;
+    private BoardAnalysis board;
+
+    // This turn's snakes as ring buffers for hunting lookahead, loaded on
+    // first use in a turn; every makeMove on it is unmade before returning
+    private SimState sim;
+    private int simTurn = -1;
+
+    // Speculative mode (-Dsnake.speculate=true): while blocked on stdin, a worker
+    // thread analyses the likeliest next boards so a matching turn starts warm
+    private static final boolean SPECULATE = Boolean.getBoolean("snake.speculate");
+    private static final int MAX_SPECULATIONS = 16;
+    private Speculator speculator;
+
+    // Decision mode (-Dsnake.mode): "heuristic" runs decideMove alone; "search"
+    // also runs a simultaneous-move search and overrides moves it proves fatal;
+    // "mcts" overrides it when Monte Carlo tree search rates it clearly worse
+    private static final String MODE = System.getProperty("snake.mode", "heuristic");
+
+    // Warm-up mode (-Dsnake.warmupMs=<ms>): between the init line and the
+    // first state, a throwaway agent plays synthetic boards of the same size
+    // for up to that long, so the hot paths are compiled before real turns
+    // need them. It stops as soon as input is waiting, so a state that has
+    // already arrived waits at most one synthetic turn. The throwaway skips
+    // the speculator and search modes.
+    private static final long WARMUP_MS = Long.getLong("snake.warmupMs", 0);
+    private boolean throwaway;
+    private static final ForkJoinPool SEARCH_POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    private SimultaneousSearch search;
+    private MctsSearch mcts;
+
+    // Replay recording (-Dsnake.record=<file>): each turn's raw input, move,
+    // deciding branch and decision time are appended to a binary log that
+    // sim/ReplayTool can re-execute
+    private ReplayRecorder recorder;
+    private int branch;
+    private static final int BRANCH_NONE = 0, BRANCH_ESCAPE = 1, BRANCH_AVOID_APPLE = 2, BRANCH_APPLE_BFS = 3,
+            BRANCH_HAMILTON = 4, BRANCH_APPLE_ASTAR = 5, BRANCH_SPIRAL = 6, BRANCH_HUNT = 7, BRANCH_SAFE = 8,
+            BRANCH_SEARCH = 9, BRANCH_MCTS = 10;
+    private static final String[] BRANCH_NAMES = { "none", "escape", "avoid-apple", "apple-bfs", "hamilton",
+            "apple-astar", "spiral", "hunt", "safe", "search", "mcts" };
 
     public static void main(String args[]) {
         MyAgent agent = new MyAgent();
         MyAgent.start(agent, args);
     }
 
+    // Parsed game state, overwritten in place every turn
+    private Snake[] snakes;
+    private Point apple;
+    private int mySnakeNum;
+
     @Override
     public void run() {
-        try (BufferedReader br = new BufferedReader(new InputStreamReader(System.in))) {
-            String initString = br.readLine();
-            String[] temp = initString.split(" ");
-            int nSnakes = Integer.parseInt(temp[0]);
-            boardWidth = Integer.parseInt(temp[1]);
-            boardHeight = Integer.parseInt(temp[2]);
+        try {
+            play(System.in, System.out);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
 
-            visited = new boolean[boardWidth][boardHeight];
-            hamiltonCycle = generateHamiltonCycle();
+    // Plays one game over the text protocol, returning after "Game Over" or
+    // end of input. Lets a simulator host agents in-process.
+    void play(InputStream input, PrintStream out) throws IOException {
+        ProtocolReader in = new ProtocolReader(input);
+        String recordPath = System.getProperty("snake.record");
+        if (recordPath != null)
+            recorder = new ReplayRecorder(Paths.get(recordPath), seed);
+
+        in.tap(recorder);
+        readInit(in);
+        in.untap();
+        if (WARMUP_MS > 0)
+            new WarmUp(boardWidth, boardHeight, snakes.length, seed).run(in);
+        if (recorder != null)
+            recorder.endHeader();
+
+        while (readTurn(in)) {
+            analyseBoard();
+            depthReached = 0;
+            scratch.countSpaceCalls = 0;
+            astarExpanded = 0;
+            int move = chooseMove(snakes[mySnakeNum], snakes, mySnakeNum, apple);
+            writeMove(out, move);
+
+            long elapsed = System.nanoTime() - moveStartTime;
+            readToWriteTotalNanos += elapsed;
+            readToWriteMaxNanos = Math.max(readToWriteMaxNanos, elapsed);
+            if (STATS)
+                recordStats(elapsed);
+            if (recorder != null)
+                recorder.endTurn(move, branch, elapsed / 1000);
+
+            if (speculator != null) {
+                Point next = moveHead(snakes[mySnakeNum], move);
+                if (next != null && inBounds(next) && inBounds(apple))
+                    speculator.start(board, mySnakeNum, next.y * boardWidth + next.x, apple.y * boardWidth + apple.x);
+            }
 
-            while (true) {
-                String line = br.readLine();
-                if (line.contains("Game Over"))
-                    break;
+            if (ANYTIME) {
+                System.err.println("turn " + turnCount + ": depth " + depthReached + " in "
+                        + elapsed / 1000 + "us");
+            }
+        }
 
-                turnCount++;
+        if (speculator != null)
+            System.err.println("speculation: " + speculator.hits + " hits, " + speculator.misses + " misses");
+        if (STATS && turnCount > 0)
+            System.err.println("read-to-write: mean " + readToWriteTotalNanos / turnCount / 1000
+                    + "us, max " + readToWriteMaxNanos / 1000 + "us over " + turnCount + " turns");
+        if (STATS) {
+            System.err.println("bodies: " + bodiesAdvanced + " advanced, " + bodiesRebuilt + " rebuilt");
+            printStats();
+        }
+        if (recorder != null)
+            recorder.close();
+    }
 
-                if (lastCacheTurn != turnCount) {
-                    spaceCache.clear();
-                    lastCacheTurn = turnCount;
-                }
+    private void recordStats(long elapsedNanos) {
+        if (turnAllocStart >= 0)
+            allocatedPerTurn.record(Telemetry.allocatedBytes() - turnAllocStart);
+        if (branchMicros[branch] == null)
+            branchMicros[branch] = new Histogram();
+        branchMicros[branch].record(elapsedNanos / 1000);
+        countSpacePerTurn.record(scratch.countSpaceCalls);
+        astarExpandedPerTurn.record(astarExpanded);
+        if (elapsedNanos > BUDGET_NANOS)
+            overBudgetTurns++;
+
+        if (Telemetry.gcCount() != turnGcCountStart) {
+            long millis = Telemetry.gcMillis() - turnGcMillisStart;
+            gcTurns++;
+            gcMillisTotal += millis;
+            gcMillisMax = Math.max(gcMillisMax, millis);
+        }
+    }
 
-                String[] appleCoords = line.split(" ");
-                int appleX = Integer.parseInt(appleCoords[0]);
-                int appleY = Integer.parseInt(appleCoords[1]);
-                Point apple = new Point(appleX, appleY);
+    private void printStats() {
+        System.err.printf("%-12s %6s %8s %8s %8s%n", "branch", "turns", "p50 us", "p99 us", "max us");
+        for (int b = 0; b < BRANCH_NAMES.length; b++) {
+            Histogram h = branchMicros[b];
+            if (h != null)
+                System.err.printf("%-12s %6d %8d %8d %8d%n", BRANCH_NAMES[b], h.count, h.percentile(0.5),
+                        h.percentile(0.99), h.max);
+        }
+        System.err.println("countSpace/turn: p50 " + countSpacePerTurn.percentile(0.5) + ", p99 "
+                + countSpacePerTurn.percentile(0.99) + ", max " + countSpacePerTurn.max);
+        System.err.println("A* expanded/turn: p50 " + astarExpandedPerTurn.percentile(0.5) + ", p99 "
+                + astarExpandedPerTurn.percentile(0.99) + ", max " + astarExpandedPerTurn.max);
+        System.err.println("over budget (" + BUDGET_NANOS / 1_000_000 + "ms): " + overBudgetTurns + " of "
+                + turnCount + " turns");
+        System.err.println("lookahead table: " + scratch.lookahead.summary());
+        System.err.println("opponent model: " + opponents.summary());
+        synchronized (allScorers) {
+            for (int i = 0; i < allScorers.size(); i++)
+                System.err.println("  pool thread " + i + ": " + allScorers.get(i).lookahead.summary());
+        }
+        if (allocatedPerTurn.count > 0)
+            System.err.println("allocated/turn: p50 " + allocatedPerTurn.percentile(0.5) + " B, p99 "
+                    + allocatedPerTurn.percentile(0.99) + " B, max " + allocatedPerTurn.max + " B");
+        else
+            System.err.println("allocated/turn: not supported by this JVM");
+        System.err.println("GC during decisions: " + gcTurns + " turns, " + gcMillisTotal + "ms total, "
+                + gcMillisMax + "ms max");
+    }
 
-                if (lastApple == null || !apple.equals(lastApple)) {
-                    appleTurnCounter = 0;
-                    lastApple = apple;
-                } else {
-                    appleTurnCounter++;
-                }
+    // Reads the game header and allocates everything sized by the board
+    private void readInit(ProtocolReader in) throws IOException {
+        int nSnakes = in.readInt();
+        boardWidth = in.readInt();
+        boardHeight = in.readInt();
+        in.skipLine();
+
+        board = new BoardAnalysis(boardWidth, boardHeight, nSnakes);
+        if (SPECULATE && !throwaway)
+            speculator = new Speculator(boardWidth, boardHeight, nSnakes, MAX_SPECULATIONS);
+        cycle = new HamiltonCycle(boardWidth, boardHeight);
+        opponents = new OpponentModel(boardWidth, boardHeight, nSnakes);
+        sim = new SimState(boardWidth, boardHeight, nSnakes);
+        scratch = new ScoreScratch(null);
+        if (PARALLEL) {
+            int nSnakesFinal = nSnakes;
+            scorers = ThreadLocal.withInitial(() -> {
+                ScoreScratch s = new ScoreScratch(new BoardAnalysis(boardWidth, boardHeight, nSnakesFinal));
+                allScorers.add(s);
+                return s;
+            });
+        }
+        heads = new int[nSnakes];
+        profiles = new SnakeProfile[nSnakes];
+        for (int i = 0; i < nSnakes; i++)
+            profiles[i] = new SnakeProfile();
+        if (MODE.equals("search") && !throwaway)
+            search = new SimultaneousSearch(boardWidth, boardHeight, nSnakes, opponents);
+        else if (MODE.equals("mcts") && !throwaway)
+            mcts = new MctsSearch(boardWidth, boardHeight, nSnakes);
+
+        // Snakes and the apple are parsed into the same objects every turn
+        snakes = new Snake[nSnakes];
+        for (int i = 0; i < nSnakes; i++) {
+            snakes[i] = new Snake();
+            snakes[i].body = new SnakeBody();
+        }
+        apple = new Point(0, 0);
+    }
 
-                int mySnakeNum = Integer.parseInt(br.readLine());
-                Snake[] snakes = new Snake[nSnakes];
+    // Parses one turn into snakes and apple; false once the game is over
+    private boolean readTurn(ProtocolReader in) throws IOException {
+        int first = in.peek();
+        if (first == -1 || first == 'G') // "Game Over"
+            return false;
 
-                for (int i = 0; i < nSnakes; i++) {
-                    snakes[i] = parseSnake(br.readLine());
-                }
+        moveStartTime = System.nanoTime();
+        turnCount++;
+        if (STATS) {
+            turnGcMillisStart = Telemetry.gcMillis();
+            turnGcCountStart = Telemetry.gcCount();
+            turnAllocStart = Telemetry.allocatedBytes();
+        }
+        in.tap(recorder);
+
+        int appleX = in.readInt();
+        int appleY = in.readInt();
+        in.skipLine();
+        apple.x = appleX;
+        apple.y = appleY;
+
+        if (appleX != lastAppleX || appleY != lastAppleY) {
+            appleTurnCounter = 0;
+            lastAppleX = appleX;
+            lastAppleY = appleY;
+        } else {
+            appleTurnCounter++;
+        }
 
-                updateProfiles(snakes);
-                int move = decideMove(snakes[mySnakeNum], snakes, mySnakeNum, apple);
-                System.out.println(move);
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
+        mySnakeNum = in.readInt();
+        in.skipLine();
+
+        for (int i = 0; i < snakes.length; i++) {
+            parseSnake(in, snakes[i]);
         }
+        in.untap();
+        return true;
     }
 
-    private List<Point> generateHamiltonCycle() {
-        List<Point> cycle = new ArrayList<>();
-        for (int y = 0; y < boardHeight; y++) {
-            if (y % 2 == 0) {
-                for (int x = 0; x < boardWidth; x++) {
-                    cycle.add(new Point(x, y));
-                }
-            } else {
-                for (int x = boardWidth - 1; x >= 0; x--) {
-                    cycle.add(new Point(x, y));
-                }
-            }
+    // Rebuilds the per-turn grid and indexes, or adopts a matching speculated board
+    private void analyseBoard() {
+        int appleCell = inBounds(apple) ? apple.y * boardWidth + apple.x : -1;
+        board.load(snakes);
+        BoardAnalysis warm = speculator != null ? speculator.collect(board, mySnakeNum, appleCell) : null;
+        if (warm != null) {
+            board = warm;
+        } else {
+            board.regions.build(mySnakeNum);
         }
-        return cycle;
+        scratch.board = board;
+        updateProfiles(snakes);
+    }
+
+    private SimState simulation() {
+        if (simTurn != turnCount) {
+            int appleCell = inBounds(apple) ? apple.y * boardWidth + apple.x : -1;
+            sim.load(snakes, appleCell, currentAppleValue());
+            simTurn = turnCount;
+            scratch.lookahead.newEpoch();
+        }
+        return sim;
+    }
+
+    // Writes the move and a newline from a reused buffer, then flushes
+    private void writeMove(PrintStream out, int move) {
+        int n = replyBuffer.length;
+        replyBuffer[--n] = '\n';
+        int v = Math.abs(move);
+        do {
+            replyBuffer[--n] = (byte) ('0' + v % 10);
+            v /= 10;
+        } while (v != 0);
+        if (move < 0)
+            replyBuffer[--n] = '-';
+        out.write(replyBuffer, n, replyBuffer.length - n);
+        out.flush();
+    }
+
+    // Snake index occupying (x, y), or -1 if the cell is empty
+    private int occupantAt(int x, int y) {
+        return (board.occupancy[y * boardWidth + x] >>> OCC_OWNER_SHIFT) - 1;
+    }
+
+    // Turns until (x, y) is vacated: 0 = empty, 1 = a tail that moves this turn
+    private int turnsUntilFree(int x, int y) {
+        return board.occupancy[y * boardWidth + x] & OCC_TTL_MASK;
+    }
+
+    // Blocked by any body segment except a tail, which moves out of the way this turn
+    private boolean isBodyBlocked(int x, int y) {
+        return turnsUntilFree(x, y) > 1;
     }
 
+    // Refreshes size and kills, and feeds every opponent's last move to the
+    // opponent model in the context it was made: the previous apple, and
+    // heads where the necks are now
     private void updateProfiles(Snake[] snakes) {
-        profiles.clear();
         for (int i = 0; i < snakes.length; i++) {
-            if (snakes[i] != null && snakes[i].alive) {
-                SnakeProfile p = new SnakeProfile();
-                p.size = snakes[i].body.size();
-                p.kills = snakes[i].kills;
-                profiles.put(i, p);
+            Snake s = snakes[i];
+            boolean alive = s != null && s.alive && !s.body.isEmpty();
+            heads[i] = alive ? cellOf(s.body.get(0)) : -1;
+        }
+
+        for (int i = 0; i < snakes.length; i++) {
+            SnakeProfile p = profiles[i];
+            Snake s = snakes[i];
+            if (heads[i] < 0) {
+                p.lastHead = -1;
+                continue;
+            }
+            p.size = s.body.size();
+            p.kills = s.kills;
+
+            // Only a snake that moved on from last turn's head (no respawn) counts
+            if (i != mySnakeNum && s.body.size() >= 3 && cellOf(s.body.get(1)) == p.lastHead) {
+                int facing = getDir(s.body.get(2), s.body.get(1));
+                int move = getDir(s.body.get(1), s.body.get(0));
+                int rel = OpponentModel.relative(facing, move);
+                if (rel >= 0) {
+                    boolean headNear = false;
+                    for (int j = 0; j < snakes.length; j++) {
+                        if (j != i && heads[j] >= 0 && snakes[j].body.size() >= 2
+                                && opponents.isNear(p.lastHead, cellOf(snakes[j].body.get(1))))
+                            headNear = true;
+                    }
+                    opponents.observe(i, opponents.context(p.lastHead, facing, modelApple, headNear), rel);
+                }
+            }
+            p.lastHead = heads[i];
+        }
+        modelApple = inBounds(apple) && currentAppleValue() > 0 ? cellOf(apple) : -1;
+    }
+
+    // The opponent model's likeliest next move for snake idx (straight
+    // until it has seen otherwise), skipping cells that are off the board
+    // or blocked; straight ahead if every move is
+    private int predictOpponentMove(Snake target, int idx) {
+        Point head = target.body.get(0);
+        int facing = getDir(target.body.get(1), head);
+        if (facing < 0 || idx < 0)
+            return facing;
+
+        int headCell = cellOf(head);
+        int appleCell = inBounds(apple) && currentAppleValue() > 0 ? cellOf(apple) : -1;
+        boolean headNear = false;
+        for (int j = 0; j < heads.length; j++) {
+            if (j != idx && heads[j] >= 0 && opponents.isNear(headCell, heads[j]))
+                headNear = true;
+        }
+        int context = opponents.context(headCell, facing, appleCell, headNear);
+
+        int best = facing;
+        double bestP = -1;
+        for (int rel = 0; rel < 3; rel++) {
+            int dir = OpponentModel.absolute(facing, rel);
+            int x = head.x + dx[dir], y = head.y + dy[dir];
+            if (x < 0 || y < 0 || x >= boardWidth || y >= boardHeight || isBodyBlocked(x, y))
+                continue;
+            double p = opponents.probability(idx, context, rel);
+            if (p > bestP) {
+                bestP = p;
+                best = dir;
+            }
+        }
+        return best;
+    }
+
+    private int chooseMove(Snake me, Snake[] all, int myIdx, Point apple) {
+        int move = decideMove(me, all, myIdx, apple);
+        if ((search == null && mcts == null) || me == null || !me.alive || me.body.isEmpty())
+            return move;
+
+        long deadline = moveStartTime + DECISION_DEADLINE_MS * 1_000_000L;
+        int appleCell = inBounds(apple) ? apple.y * boardWidth + apple.x : -1;
+        if (mcts != null) {
+            // Keep the heuristic move unless playouts rate it clearly worse
+            mcts.run(all, myIdx, appleCell, currentAppleValue(), deadline, seed + turnCount);
+            int best = mcts.bestMove();
+            if (best != -1 && best != move && mcts.isClearlyWorse(move, best)) {
+                move = best;
+                branch = BRANCH_MCTS;
             }
+            if (STATS)
+                System.err.println("turn " + turnCount + ": mcts " + mcts.playouts + " playouts, "
+                        + mcts.playoutsPerSecond() + " playouts/s");
+            return move;
+        }
+
+        // Keep the heuristic move unless the search proves it loses within
+        // its horizon while another move does not
+        search.run(all, myIdx, appleCell, currentAppleValue(), deadline);
+        int best = search.bestMove();
+        if (best != -1 && search.isForcedLoss(move) && !search.isForcedLoss(best)) {
+            move = best;
+            branch = BRANCH_SEARCH;
         }
+
+        if (STATS)
+            System.err.println("turn " + turnCount + ": search depth " + search.depthReached + ", "
+                    + search.nodes + " nodes, " + search.nodesPerSecond() + " nodes/s, table "
+                    + (search.probes == 0 ? 0 : search.hits * 100 / search.probes) + "% of " + search.probes
+                    + " probes");
+        return move;
+    }
+
+    private int currentAppleValue() {
+        return (int) Math.ceil(5.0 - (appleTurnCounter * 0.1));
     }
 
     private int decideMove(Snake me, Snake[] all, int myIdx, Point apple) {
+        branch = BRANCH_NONE;
         if (me == null || !me.alive || me.body.isEmpty())
             return 0;
 
         Point head = me.body.get(0);
-        int appleVal = (int) Math.ceil(5.0 - (appleTurnCounter * 0.1));
+        int appleVal = currentAppleValue();
 
         if (isInImmediateDanger(me, all, myIdx)) {
             int escape = enhancedEmergencyEscape(me, all, myIdx);
-            if (escape != -1)
+            if (escape != -1) {
+                branch = BRANCH_ESCAPE;
                 return escape;
+            }
         }
 
         if (appleVal <= -4) {
             if (!hasSignificantLead(me, all, 5)) {
+                branch = BRANCH_AVOID_APPLE;
                 return moveAwayFrom(head, apple, me, all, myIdx);
             }
         } else if (appleVal >= -3 && appleVal < 0) {
             if (!hasSignificantLead(me, all, 3)) {
+                branch = BRANCH_AVOID_APPLE;
                 return moveAwayFrom(head, apple, me, all, myIdx);
             }
         }
 
-        if (appleVal >= 1 && !willLoseAtApple(me, apple, all, myIdx)) {
-            List<Point> path = findPathBFS(head, apple, me, all, myIdx);
-            if (path != null && path.size() > 1 && isPathSurvivable(path, me, all, myIdx)) {
-                Point next = path.get(1);
+        if (appleVal >= 1 && !willLoseAtApple(me, apple, myIdx)) {
+            // A long snake leaving the cycle for a path can box itself in, so it tries the cycle first
+            if (isCycleBound(me)) {
+                int hamiltonMove = findHamiltonMove(me, apple, all, myIdx);
+                if (hamiltonMove != -1) {
+                    branch = BRANCH_HAMILTON;
+                    return hamiltonMove;
+                }
+            }
+
+            int pathLen = findPathBFS(head, apple, me, all, myIdx);
+            if (pathLen > 1 && isPathSurvivable(board.bfs.path, pathLen, me, all, myIdx)) {
+                Point next = cellToPoint(board.bfs.path[1]);
                 int move = getDir(head, next);
                 if (move != -1 && isMoveValid(me, next, all, myIdx)) {
+                    branch = BRANCH_APPLE_BFS;
                     return move;
                 }
             }
 
             int hamiltonMove = findHamiltonMove(me, apple, all, myIdx);
-            if (hamiltonMove != -1)
+            if (hamiltonMove != -1) {
+                branch = BRANCH_HAMILTON;
                 return hamiltonMove;
+            }
 
-            path = findPathAStar(head, apple, me, all, myIdx);
-            if (path != null && path.size() > 1 && isPathSurvivable(path, me, all, myIdx)) {
-                Point next = path.get(1);
+            pathLen = findPathAStar(head, apple, me, all, myIdx);
+            if (pathLen > 1 && isPathSurvivable(board.astar.path, pathLen, me, all, myIdx)) {
+                Point next = cellToPoint(board.astar.path[1]);
                 int move = getDir(head, next);
                 if (move != -1 && isMoveValid(me, next, all, myIdx)) {
+                    branch = BRANCH_APPLE_ASTAR;
                     return move;
                 }
             }
 
             int spiralMove = getTrueSpiralMove(me, apple, all, myIdx);
-            if (spiralMove != -1)
+            if (spiralMove != -1) {
+                branch = BRANCH_SPIRAL;
                 return spiralMove;
+            }
         }
 
         if (appleVal >= 1 && me.body.size() >= 5) {
             Snake target = findEasyTarget(me, all, myIdx);
             if (target != null) {
                 int huntMove = simpleHunt(me, target, all, myIdx);
-                if (huntMove != -1)
+                if (huntMove != -1) {
+                    branch = BRANCH_HUNT;
                     return huntMove;
+                }
             }
         }
 
+        branch = BRANCH_SAFE;
         return findBestSafeMove(me, all, myIdx, apple, appleVal);
     }
 
@@ -198,54 +622,33 @@ public class MyAgent extends DevelopmentAgent {
         return true;
     }
 
-    private int countSpace(Point start, Snake me, Snake[] all, int myIdx) {
+    private int countSpace(ScoreScratch s, Point start, Snake me, Snake[] all, int myIdx) {
+        s.countSpaceCalls++;
         if (!inBounds(start))
             return 0;
 
-        if (spaceCache.containsKey(start)) {
-            return spaceCache.get(start);
-        }
-
-        Queue<Point> q = new LinkedList<>();
-        boolean[][] vis = new boolean[boardWidth][boardHeight];
-
-        for (int i = 0; i < all.length; i++) {
-            if (all[i] != null && all[i].alive && all[i].body != null) {
-                int stopIndex = (i == myIdx) ? all[i].body.size() : all[i].body.size() - 1;
-                for (int j = 0; j < stopIndex; j++) {
-                    Point p = all[i].body.get(j);
-                    if (inBounds(p))
-                        vis[p.x][p.y] = true;
-                }
-            }
-        }
-
-        q.offer(start);
-        vis[start.x][start.y] = true;
-        int count = 0;
-
-        while (!q.isEmpty()) {
-            Point cur = q.poll();
-            count++;
-
-            for (int i = 0; i < 4; i++) {
-                int nx = cur.x + dx[i];
-                int ny = cur.y + dy[i];
-
-                if (inBounds(new Point(nx, ny)) && !vis[nx][ny]) {
-                    vis[nx][ny] = true;
-                    q.offer(new Point(nx, ny));
-                }
-            }
-        }
+        // Time-aware: cells count once they have emptied by the time we could
+        // get there. A cell other than our head is entered a turn from now.
+        int cell = start.y * boardWidth + start.x;
+        return s.board.timedSpace(cell, cell == s.board.heads[myIdx] ? 0 : 1);
+    }
 
-        spaceCache.put(start, count);
-        return count;
+    // Space for a move into pos, read from the articulation analysis: the
+    // region behind pos for a cell next to our head, else the dead end pos
+    // lies in. Only when that is shorter than us do we pay for the
+    // time-aware flood, which also counts cells vacated on the way.
+    private int roomAt(ScoreScratch s, Point pos, Snake me, Snake[] all, int myIdx, boolean nextToHead) {
+        int cell = cellOf(pos);
+        CutIndex cuts = s.board.cuts(myIdx);
+        int room = nextToHead ? cuts.regionSize(cell) : cuts.pocketSize(cell);
+        if (room >= me.body.size())
+            return room;
+        return countSpace(s, pos, me, all, myIdx);
     }
 
     private boolean isInImmediateDanger(Snake me, Snake[] all, int myIdx) {
         Point head = me.body.get(0);
-        int space = countSpace(head, me, all, myIdx);
+        int space = countSpace(scratch, head, me, all, myIdx);
         if (space < me.body.size() + 3)
             return true;
 
@@ -288,7 +691,7 @@ public class MyAgent extends DevelopmentAgent {
         for (int dir : turnOrder) {
             Point newPos = moveHead(me, dir);
             if (newPos != null && isMoveValid(me, newPos, all, myIdx)) {
-                int space = countSpace(newPos, me, all, myIdx);
+                int space = roomAt(scratch, newPos, me, all, myIdx, true);
                 if (space > maxSpace) {
                     maxSpace = space;
                     bestMove = dir;
@@ -308,185 +711,112 @@ public class MyAgent extends DevelopmentAgent {
         return bestMove != -1 ? bestMove : currentDir;
     }
 
-    private boolean isPathSurvivable(List<Point> path, Snake me, Snake[] all, int myIdx) {
-        if (path == null || path.size() <= 1)
+    // Checks the first steps of path against the expiry map: each cell must
+    // be free by the turn we reach it, and from each we must still reach
+    // half our length in space, with the path behind us walled off
+    private boolean isPathSurvivable(int[] path, int pathLen, Snake me, Snake[] all, int myIdx) {
+        if (path == null || pathLen <= 1)
+            return false;
+        if (!isMoveValid(me, cellToPoint(path[1]), all, myIdx))
             return false;
 
-        Snake virtualMe = copySnake(me);
-        int maxSteps = Math.min(path.size() - 1, 6);
-
+        int maxSteps = Math.min(pathLen - 1, 6);
+        int need = me.body.size() / 2;
         for (int step = 1; step <= maxSteps; step++) {
-            Point nextPos = path.get(step);
-
-            virtualMe.body.add(0, nextPos);
-            if (virtualMe.body.size() > me.body.size()) {
-                virtualMe.body.remove(virtualMe.body.size() - 1);
-            }
-
-            if (!isMoveValid(virtualMe, nextPos, all, myIdx))
+            if (board.expiry[path[step]] > step)
                 return false;
-
-            int futureSpace = countSpace(nextPos, virtualMe, all, myIdx);
-            if (futureSpace < virtualMe.body.size() / 2)
+            if (board.bfs.timedSpace(path[step], step, path, step, need) < need)
                 return false;
         }
         return true;
     }
 
-    private List<Point> findPathBFS(Point start, Point goal, Snake me, Snake[] all, int myIdx) {
+    // Shortest path into board.bfs.path (start first); returns its length, 0 if unreachable
+    private int findPathBFS(Point start, Point goal, Snake me, Snake[] all, int myIdx) {
         if (start == null || goal == null)
-            return null;
-
-        for (int i = 0; i < boardWidth; i++) {
-            Arrays.fill(visited[i], false);
-        }
-
-        for (Snake s : all) {
-            if (s != null && s.alive && s.body != null) {
-                for (int i = 0; i < s.body.size() - 1; i++) {
-                    Point p = s.body.get(i);
-                    if (inBounds(p))
-                        visited[p.x][p.y] = true;
-                }
-            }
-        }
-
-        Queue<Point> q = new LinkedList<>();
-        Map<Point, Point> parent = new HashMap<>();
-
-        q.offer(start);
-        visited[start.x][start.y] = false;
-        parent.put(start, null);
-
-        while (!q.isEmpty()) {
-            Point cur = q.poll();
-
-            if (cur.equals(goal)) {
-                return reconstruct(parent, start, goal);
-            }
-
-            for (int i = 0; i < 4; i++) {
-                int nx = cur.x + dx[i];
-                int ny = cur.y + dy[i];
-
-                if (inBounds(new Point(nx, ny)) && !visited[nx][ny]) {
-                    Point next = new Point(nx, ny);
-                    visited[nx][ny] = true;
-                    parent.put(next, cur);
-                    q.offer(next);
-                }
-            }
-        }
+            return 0;
 
-        return null;
+        int startCell = start.y * boardWidth + start.x;
+        int goalCell = goal.y * boardWidth + goal.x;
+        if (board.takeCachedBfsPath(startCell, goalCell))
+            return board.bfsPathLen;
+        if (!board.bfs.search(startCell, goalCell))
+            return 0;
+        return board.bfs.reconstruct(startCell, goalCell);
     }
 
+    // Heads for the apple by the Hamiltonian cycle. A short snake moves
+    // greedily, ties going to the cell closer along the cycle. A cycle-bound
+    // snake takes the shortcut that gets furthest along the cycle, and only
+    // onto cycle-safe cells: staying on the cycle from there can never hit
+    // our own body.
     private int findHamiltonMove(Snake me, Point apple, Snake[] all, int myIdx) {
         Point head = me.body.get(0);
-        int searchRadius = 10;
-        int minScore = Integer.MAX_VALUE;
-        Point bestCyclePoint = null;
-
-        for (Point cyclePoint : hamiltonCycle) {
-            int distFromHead = manhattan(head, cyclePoint);
-            if (distFromHead > searchRadius)
-                continue;
+        if (cycle.size == 0 || !inBounds(apple))
+            return -1;
 
-            if (isPositionSafe(cyclePoint, me, all)) {
-                int distToApple = manhattan(cyclePoint, apple);
-                int score = distToApple + distFromHead;
+        int appleCell = apple.y * boardWidth + apple.x;
+        boolean appleOnCycle = cycle.position[appleCell] >= 0;
+        int growth = Math.max(0, currentAppleValue());
+        boolean guarded = isCycleBound(me);
 
-                if (score < minScore) {
-                    minScore = score;
-                    bestCyclePoint = cyclePoint;
-                }
+        int bestMove = -1, bestKey = Integer.MAX_VALUE, bestTie = Integer.MAX_VALUE;
+        for (int m = 0; m < 4; m++) {
+            int nx = head.x + dx[m], ny = head.y + dy[m];
+            if (nx < 0 || ny < 0 || nx >= boardWidth || ny >= boardHeight)
+                continue;
+            int cell = ny * boardWidth + nx;
+            if (cycle.position[cell] < 0)
+                continue;
+            int dist = Math.abs(nx - apple.x) + Math.abs(ny - apple.y);
+            int along = appleOnCycle ? cycle.distance(cell, appleCell) : 0;
+            int key = guarded ? along : dist, tie = guarded ? dist : along;
+            if (key > bestKey || (key == bestKey && tie >= bestTie))
+                continue;
+            if (isMoveValid(me, new Point(nx, ny), all, myIdx) && (!guarded || isCycleSafe(cell, me, growth))) {
+                bestKey = key;
+                bestTie = tie;
+                bestMove = m;
             }
         }
-
-        if (bestCyclePoint != null) {
-            return getGreedyMove(head, bestCyclePoint, me, all, myIdx);
-        }
-        return -1;
+        return bestMove;
     }
 
-    private List<Point> findPathAStar(Point start, Point goal, Snake me, Snake[] all, int myIdx) {
-        if (start == null || goal == null)
-            return null;
-
-        for (int i = 0; i < boardWidth; i++) {
-            Arrays.fill(visited[i], false);
-        }
-
-        for (Snake s : all) {
-            if (s != null && s.alive && s.body != null) {
-                for (int i = 0; i < s.body.size() - 1; i++) {
-                    Point p = s.body.get(i);
-                    if (inBounds(p))
-                        visited[p.x][p.y] = true;
-                }
-            }
-        }
-
-        PriorityQueue<PathNode> pq = new PriorityQueue<>((a, b) -> Integer.compare(a.f, b.f));
-        Map<Point, Point> parent = new HashMap<>();
-        Map<Point, Integer> gScore = new HashMap<>();
-        boolean[][] closed = new boolean[boardWidth][boardHeight];
-
-        int h = manhattan(start, goal);
-        PathNode startNode = new PathNode(start, 0, h);
-
-        pq.offer(startNode);
-        parent.put(start, null);
-        gScore.put(start, 0);
-
-        while (!pq.isEmpty()) {
-            PathNode curNode = pq.poll();
-            Point cur = curNode.p;
+    private boolean isCycleBound(Snake me) {
+        return cycle.size > 0 && me.body.size() * CYCLE_BOUND_FRACTION >= cycle.size;
+    }
 
-            if (closed[cur.x][cur.y])
+    // True if, after stepping onto start, walking the cycle from there reaches
+    // each of our segments no earlier than it leaves (growth turns late at
+    // most). Staying on the cycle from start can then never hit our own body.
+    private boolean isCycleSafe(int start, Snake me, int growth) {
+        int len = me.body.size();
+        for (int i = 0; i < len; i++) {
+            Point p = me.body.get(i);
+            int cell = p.y * boardWidth + p.x;
+            if (cycle.position[cell] < 0)
                 continue;
-            closed[cur.x][cur.y] = true;
-
-            if (cur.equals(goal)) {
-                return reconstruct(parent, start, goal);
-            }
-
-            for (int i = 0; i < 4; i++) {
-                int nx = cur.x + dx[i];
-                int ny = cur.y + dy[i];
-                Point next = new Point(nx, ny);
-
-                if (inBounds(next) && !visited[nx][ny] && !closed[nx][ny]) {
-                    int spaceAtNext = countSpace(next, me, all, myIdx);
-                    int spaceBonus = Math.max(0, (spaceAtNext - me.body.size()) / 4);
-
-                    int enemyPenalty = 0;
-                    for (int j = 0; j < all.length; j++) {
-                        if (j != myIdx && all[j] != null && all[j].alive && !all[j].body.isEmpty()) {
-                            int distToEnemy = manhattan(next, all[j].body.get(0));
-                            if (distToEnemy <= 2) {
-                                enemyPenalty += 3;
-                                if (distToEnemy == 1 && all[j].body.size() >= me.body.size()) {
-                                    enemyPenalty += 8;
-                                }
-                            }
-                        }
-                    }
-
-                    int tentativeG = curNode.g + 1 + enemyPenalty - spaceBonus;
-
-                    if (tentativeG < gScore.getOrDefault(next, Integer.MAX_VALUE)) {
-                        gScore.put(next, tentativeG);
-                        int heuristic = manhattan(next, goal);
-                        PathNode nextNode = new PathNode(next, tentativeG, heuristic);
-                        pq.offer(nextNode);
-                        parent.put(next, cur);
-                    }
-                }
-            }
+            // Reached at turn 1 + distance; segment i leaves at turn len - i
+            if (1 + cycle.distance(start, cell) < len - i + growth)
+                return false;
         }
+        return true;
+    }
 
-        return null;
+    // Opponent-aware path into board.astar.path (start first); returns its length, 0 if unreachable
+    private int findPathAStar(Point start, Point goal, Snake me, Snake[] all, int myIdx) {
+        if (start == null || goal == null)
+            return 0;
+
+        int startCell = start.y * boardWidth + start.x;
+        int goalCell = goal.y * boardWidth + goal.x;
+        if (board.takeCachedAStarPath(startCell, goalCell))
+            return board.astarPathLen;
+        if (!board.stepCostsReady)
+            board.buildStepCosts(myIdx);
+        int len = board.astar.search(startCell, goalCell);
+        astarExpanded += board.astar.expanded;
+        return len;
     }
 
     private int getTrueSpiralMove(Snake me, Point target, Snake[] all, int myIdx) {
@@ -506,7 +836,7 @@ public class MyAgent extends DevelopmentAgent {
         for (int dir : spiralPriority) {
             Point newPos = moveHead(me, dir);
             if (newPos != null && isMoveValid(me, newPos, all, myIdx)) {
-                if (isExpandingMovement(me, newPos)) {
+                if (isExpandingMovement(newPos, myIdx)) {
                     return dir;
                 }
             }
@@ -521,20 +851,12 @@ public class MyAgent extends DevelopmentAgent {
         return -1;
     }
 
-    private boolean isExpandingMovement(Snake me, Point newPos) {
+    private boolean isExpandingMovement(Point newPos, int myIdx) {
         int futureOptions = 0;
         for (int dir = 0; dir < 4; dir++) {
             Point futurePos = new Point(newPos.x + dx[dir], newPos.y + dy[dir]);
-            if (inBounds(futurePos)) {
-                boolean blocked = false;
-                for (Point bodyPart : me.body) {
-                    if (bodyPart.equals(futurePos)) {
-                        blocked = true;
-                        break;
-                    }
-                }
-                if (!blocked)
-                    futureOptions++;
+            if (inBounds(futurePos) && occupantAt(futurePos.x, futurePos.y) != myIdx) {
+                futureOptions++;
             }
         }
         return futureOptions >= 2;
@@ -559,8 +881,8 @@ public class MyAgent extends DevelopmentAgent {
                 continue;
 
             if (me.body.size() > all[i].body.size() + 2) {
-                Point enemyHead = all[i].body.get(0);
-                int dist = manhattan(me.body.get(0), enemyHead);
+                // Path length, so a snake behind a wall of bodies is not near
+                int dist = orFar(board.distance(i, cellOf(me.body.get(0))));
 
                 if (dist <= 5 && all[i].body.size() < minSize) {
                     minSize = all[i].body.size();
@@ -590,6 +912,24 @@ public class MyAgent extends DevelopmentAgent {
         Point predicted = predictPositionMultiStep(target, targetIdx, 3);
         Point center = new Point(boardWidth / 2, boardHeight / 2);
 
+        int bestMove = huntAtDepth(me, target, all, myIdx, targetIdx, predicted, targetHead, center, BASE_TRAP_STEPS);
+        depthReached = BASE_TRAP_STEPS;
+        if (ANYTIME && bestMove != -1) {
+            startDeepening();
+            for (int steps = BASE_TRAP_STEPS + 1; steps <= MAX_TRAP_STEPS; steps++) {
+                int move = huntAtDepth(me, target, all, myIdx, targetIdx, predicted, targetHead, center, steps);
+                if (scratch.aborted)
+                    break;
+                bestMove = move;
+                depthReached = steps;
+            }
+            stopDeepening();
+        }
+        return bestMove;
+    }
+
+    private int huntAtDepth(Snake me, Snake target, Snake[] all, int myIdx, int targetIdx, Point predicted,
+            Point targetHead, Point center, int trapSteps) {
         int bestMove = -1;
         int bestScore = Integer.MIN_VALUE;
 
@@ -606,9 +946,11 @@ public class MyAgent extends DevelopmentAgent {
                 }
 
                 // ENHANCED: Multi-step trap simulation (using 50ms budget)
-                if (canTrapMultiStep(newPos, target, all, myIdx, 3)) {
+                if (canTrapMultiStep(newPos, targetIdx, trapSteps)) {
                     score += 1500; // Increased bonus for confirmed 3-step trap
                 }
+                if (scratch.aborted)
+                    break;
 
                 // NEW: Evaluate if we're cutting off escape routes
                 int blockedEscapes = countBlockedEscapeRoutes(newPos, target, all);
@@ -623,100 +965,72 @@ public class MyAgent extends DevelopmentAgent {
         return bestMove;
     }
 
-    // Single-step position prediction with randomness
+    // Single-step position prediction from the opponent model
     private Point predictPositionEnhanced(Snake target, int targetIdx) {
         if (target.body.size() < 2)
             return target.body.get(0);
 
         Point head = target.body.get(0);
-        Point neck = target.body.get(1);
-        int dx = head.x - neck.x;
-        int dy = head.y - neck.y;
-
-        SnakeProfile profile = profiles.get(targetIdx);
-        if (profile != null && profile.kills > 1 && random.nextDouble() > 0.5) {
-            int randTurn = random.nextInt(2) == 0 ? 1 : -1;
-            int temp = dx;
-            dx = dy * randTurn;
-            dy = -temp * randTurn;
-        }
-
-        Point predicted = new Point(head.x + dx, head.y + dy);
+        int dir = predictOpponentMove(target, targetIdx);
+        if (dir < 0)
+            return head;
+        Point predicted = new Point(head.x + dx[dir], head.y + dy[dir]);
         return inBounds(predicted) ? predicted : head;
     }
 
-    private boolean canTrapAtPosition(Point myPos, Snake target, Snake[] all, int myIdx) {
-        Point targetHead = target.body.get(0);
-        int escapeRoutes = 0;
-
-        for (int dir = 0; dir < 4; dir++) {
-            Point escape = new Point(targetHead.x + dx[dir], targetHead.y + dy[dir]);
-            if (escape.equals(myPos))
-                continue;
-            if (inBounds(escape) && isPositionSafe(escape, target, all)) {
-                escapeRoutes++;
-            }
-        }
-        return escapeRoutes <= 1;
-    }
-
     // NEW: Enhanced multi-step trap detection (uses 50ms budget wisely)
-    private boolean canTrapMultiStep(Point myStartPos, Snake target, Snake[] all, int myIdx, int steps) {
-        Snake virtualTarget = cloneSnake(target);
-        Point virtualMyPos = myStartPos;
+    // The target walks its predicted moves on the simulation, so its own
+    // trail blocks escapes; we only track our head, closing in each step.
+    private boolean canTrapMultiStep(Point myStartPos, int targetIdx, int steps) {
+        if (targetIdx < 0)
+            return false;
+        SimState s = simulation();
+        int myCell = cellOf(myStartPos);
+        int made = 0;
+        boolean trapped = false;
 
-        int targetIdx = -1;
-        for (int i = 0; i < all.length; i++) {
-            if (all[i] == target) {
-                targetIdx = i;
+        for (int step = 0; step < steps && !trapped; step++) {
+            if (outOfTime())
                 break;
-            }
-        }
 
-        for (int step = 0; step < steps; step++) {
-            // Predict where target will move
-            Point predicted = predictPositionEnhanced(virtualTarget, targetIdx);
-
-            // Simulate target moving there
-            virtualTarget.body.add(0, predicted);
-            if (virtualTarget.body.size() > target.body.size()) {
-                virtualTarget.body.remove(virtualTarget.body.size() - 1);
-            }
+            // Simulate target moving where the model expects
+            int dir = opponents.predict(s, targetIdx);
+            if (dir < 0 || s.neighbour(s.head(targetIdx), dir) < 0)
+                break;
+            s.makeMove(targetIdx, dir);
+            made++;
+            int predicted = s.head(targetIdx);
 
             // Check if target is trapped at this step
             int escapes = 0;
-            for (int dir = 0; dir < 4; dir++) {
-                Point escape = new Point(predicted.x + dx[dir], predicted.y + dy[dir]);
-                if (escape.equals(virtualMyPos))
-                    continue;
-                if (inBounds(escape) && isPositionSafe(escape, virtualTarget, all)) {
+            for (int d = 0; d < 4; d++) {
+                int escape = s.neighbour(predicted, d);
+                if (escape != myCell && s.isOpen(escape))
                     escapes++;
-                }
-            }
-
-            if (escapes == 0) {
-                return true; // Trapped at this step!
             }
+            trapped = escapes == 0;
 
             // We also advance one step closer
-            int closestDir = -1;
+            int closest = -1;
             int minDist = Integer.MAX_VALUE;
-            for (int dir = 0; dir < 4; dir++) {
-                Point nextMyPos = new Point(virtualMyPos.x + dx[dir], virtualMyPos.y + dy[dir]);
-                if (inBounds(nextMyPos)) {
-                    int dist = manhattan(nextMyPos, predicted);
+            for (int d = 0; d < 4; d++) {
+                int next = s.neighbour(myCell, d);
+                if (next >= 0) {
+                    int dist = Math.abs(next % boardWidth - predicted % boardWidth)
+                            + Math.abs(next / boardWidth - predicted / boardWidth);
                     if (dist < minDist) {
                         minDist = dist;
-                        closestDir = dir;
+                        closest = next;
                     }
                 }
             }
-            if (closestDir != -1) {
-                virtualMyPos = new Point(virtualMyPos.x + dx[closestDir], virtualMyPos.y + dy[closestDir]);
-            }
+            if (closest != -1)
+                myCell = closest;
         }
 
-        return false;
+        while (made-- > 0)
+            s.unmakeMove();
+        return trapped;
     }
 
     // NEW: Count how many escape routes we're blocking
@@ -738,34 +1052,26 @@ public class MyAgent extends DevelopmentAgent {
         return blocked;
     }
 
-    // NEW: Iterative multi-step prediction
+    // NEW: Iterative multi-step prediction, walked on the simulation and
+    // unmade again; stops early at a wall
     private Point predictPositionMultiStep(Snake target, int targetIdx, int steps) {
-        Snake virtualTarget = cloneSnake(target);
-        Point predicted = target.body.get(0);
-
+        SimState s = simulation();
+        if (targetIdx < 0 || !s.alive[targetIdx])
+            return target.body.get(0);
+        int made = 0;
         for (int step = 0; step < steps; step++) {
-            predicted = predictPositionEnhanced(virtualTarget, targetIdx);
-
-            // Update virtual snake position
-            virtualTarget.body.add(0, predicted);
-            if (virtualTarget.body.size() > target.body.size()) {
-                virtualTarget.body.remove(virtualTarget.body.size() - 1);
-            }
+            int dir = opponents.predict(s, targetIdx);
+            if (dir < 0 || s.neighbour(s.head(targetIdx), dir) < 0)
+                break;
+            s.makeMove(targetIdx, dir);
+            made++;
         }
-
+        Point predicted = cellToPoint(s.head(targetIdx));
+        while (made-- > 0)
+            s.unmakeMove();
         return predicted;
     }
 
-    // Helper: Clone snake for simulation
-    private Snake cloneSnake(Snake s) {
-        Snake clone = new Snake();
-        clone.alive = s.alive;
-        clone.length = s.length;
-        clone.kills = s.kills;
-        clone.body = new ArrayList<>(s.body);
-        return clone;
-    }
-
     private boolean isBetween(Point a, Point b, Point c) {
         int distBC = manhattan(b, c);
         int distBA = manhattan(b, a);
@@ -774,125 +1080,103 @@ public class MyAgent extends DevelopmentAgent {
     }
 
     private boolean isPositionSafe(Point pos, Snake snake, Snake[] all) {
-        if (!inBounds(pos))
+        return inBounds(pos) && !isBodyBlocked(pos.x, pos.y);
+    }
+
+    // The apple's owner, or the longest of the snakes contesting it, is at
+    // least our size
+    private boolean willLoseAtApple(Snake me, Point apple, int myIdx) {
+        if (!inBounds(apple))
+            return true;
+        TerritoryMap territory = territory(scratch, myIdx);
+        int cell = apple.y * boardWidth + apple.x;
+        int owner = territory.owner[cell];
+        if (owner == myIdx)
             return false;
-        for (Snake s : all) {
-            if (s != null && s.alive && s.body != null) {
-                for (int i = 0; i < s.body.size() - 1; i++) {
-                    if (pos.equals(s.body.get(i)))
-                        return false;
-                }
-            }
-        }
-        return true;
+        if (owner == TerritoryMap.CONTESTED)
+            return territory.claimSize[cell] >= me.body.size();
+        return owner >= 0 && board.sizes[owner] >= me.body.size();
     }
 
-    private int getGreedyMove(Point head, Point target, Snake me, Snake[] all, int myIdx) {
-        int bestMove = -1;
-        int minDist = Integer.MAX_VALUE;
+    private boolean isMoveValid(Snake me, Point pos, Snake[] all, int myIdx) {
+        if (!inBounds(pos))
+            return false;
 
-        for (int m = 0; m < 4; m++) {
-            Point newPos = moveHead(me, m);
-            if (newPos != null && isMoveValid(me, newPos, all, myIdx)) {
-                int d = manhattan(newPos, target);
-                if (d < minDist) {
-                    minDist = d;
-                    bestMove = m;
-                }
+        if (isBodyBlocked(pos.x, pos.y))
+            return false;
+
+        if (me == all[myIdx]) {
+            // A 2-long snake's neck is also its tail, so the grid alone lets it reverse
+            if (me.body.size() == 2 && occupantAt(pos.x, pos.y) == myIdx
+                    && turnsUntilFree(pos.x, pos.y) == 1)
+                return false;
+        } else {
+            // Simulated bodies are not on the grid
+            if (me.body.size() >= 2 && pos.equals(me.body.get(1)))
+                return false;
+            for (int i = 0; i < me.body.size() - 1; i++) {
+                if (pos.equals(me.body.get(i)))
+                    return false;
             }
         }
-        return bestMove;
-    }
-
-    private Snake copySnake(Snake original) {
-        Snake copy = new Snake();
-        copy.alive = original.alive;
-        copy.length = original.length;
-        copy.kills = original.kills;
-        copy.body = new ArrayList<>(original.body);
-        return copy;
-    }
-
-    private boolean willLoseAtApple(Snake me, Point apple, Snake[] all, int myIdx) {
-        Point myHead = me.body.get(0);
-        int myDist = manhattan(myHead, apple);
 
         for (int i = 0; i < all.length; i++) {
             if (i == myIdx || all[i] == null || !all[i].alive || all[i].body.isEmpty())
                 continue;
 
-            int enemyDist = manhattan(all[i].body.get(0), apple);
+            Point enemyHead = all[i].body.get(0);
 
-            if (enemyDist <= myDist) {
-                if (all[i].body.size() >= me.body.size()) {
-                    return true;
-                }
-                if (all[i].body.size() == me.body.size() && all[i].kills >= me.kills) {
-                    return true;
+            for (int d = 0; d < 4; d++) {
+                int nx = enemyHead.x + dx[d];
+                int ny = enemyHead.y + dy[d];
+
+                if (nx == pos.x && ny == pos.y) {
+                    return false;
                 }
             }
         }
-        return false;
+        return true;
     }
 
-    private boolean isMoveValid(Snake me, Point pos, Snake[] all, int myIdx) {
-        if (!inBounds(pos))
-            return false;
-
-        if (me.body.size() >= 2 && pos.equals(me.body.get(1)))
-            return false;
-
-        for (int i = 0; i < me.body.size() - 1; i++) {
-            if (pos.equals(me.body.get(i)))
-                return false;
-        }
-
-        for (Snake s : all) {
-            if (s != null && s != me && s.alive && s.body != null) {
-                for (int i = 0; i < s.body.size() - 1; i++) {
-                    if (pos.equals(s.body.get(i)))
-                        return false;
-                }
+    private int findBestSafeMove(Snake me, Snake[] all, int myIdx, Point apple, int appleVal) {
+        int bestMove = scoreMoves(me, all, myIdx, apple, appleVal, BASE_LOOKAHEAD);
+        depthReached = BASE_LOOKAHEAD;
+
+        // Anytime mode: each deeper pass replaces the answer only if it finishes in time
+        if (ANYTIME && bestMove != -1) {
+            startDeepening();
+            for (int depth = BASE_LOOKAHEAD + 1; depth <= MAX_LOOKAHEAD; depth++) {
+                int move = scoreMoves(me, all, myIdx, apple, appleVal, depth);
+                if (scratch.aborted)
+                    break;
+                bestMove = move;
+                depthReached = depth;
             }
+            stopDeepening();
         }
 
-        for (int i = 0; i < all.length; i++) {
-            if (i == myIdx || all[i] == null || !all[i].alive || all[i].body.isEmpty())
-                continue;
-
-            Point enemyHead = all[i].body.get(0);
-
-            for (int d = 0; d < 4; d++) {
-                int nx = enemyHead.x + dx[d];
-                int ny = enemyHead.y + dy[d];
+        if (bestMove == -1) {
+            int currentDir = getCurrentDir(me);
+            Point continuePos = moveHead(me, currentDir);
+            if (continuePos != null && isMoveValid(me, continuePos, all, myIdx)) {
+                return currentDir;
+            }
 
-                if (nx == pos.x && ny == pos.y) {
-                    return false;
+            for (int m = 0; m < 4; m++) {
+                Point newPos = moveHead(me, m);
+                if (newPos != null && isMoveValid(me, newPos, all, myIdx)) {
+                    return m;
                 }
             }
         }
-        return true;
-    }
-
-    private List<Point> reconstruct(Map<Point, Point> parent, Point start, Point goal) {
-        List<Point> path = new ArrayList<>();
-        Point cur = goal;
-
-        while (cur != null && !cur.equals(start)) {
-            path.add(0, cur);
-            cur = parent.get(cur);
-        }
-
-        if (cur != null) {
-            path.add(0, start);
-            return path;
-        }
-        return null;
+        return bestMove != -1 ? bestMove : 0;
     }
 
-    private int findBestSafeMove(Snake me, Snake[] all, int myIdx, Point apple, int appleVal) {
+    private int scoreMoves(Snake me, Snake[] all, int myIdx, Point apple, int appleVal, int lookahead) {
         int bestMove = -1;
         int bestScore = Integer.MIN_VALUE;
+        if (PARALLEL)
+            scoreInParallel(me, all, myIdx, apple, appleVal, lookahead);
 
         for (int m = 0; m < 4; m++) {
             Point newPos = moveHead(me, m);
@@ -900,29 +1184,75 @@ public class MyAgent extends DevelopmentAgent {
             if (newPos == null || !isMoveValid(me, newPos, all, myIdx))
                 continue;
 
-            int score = scorePosition(newPos, me, all, myIdx, apple, appleVal);
+            int score = PARALLEL ? moveScores[m]
+                    : scorePosition(scratch, newPos, me, all, myIdx, apple, appleVal, lookahead);
+            if (scratch.aborted)
+                break;
 
             if (score > bestScore) {
                 bestScore = score;
                 bestMove = m;
             }
         }
+        return bestMove;
+    }
 
-        if (bestMove == -1) {
-            int currentDir = getCurrentDir(me);
-            Point continuePos = moveHead(me, currentDir);
-            if (continuePos != null && isMoveValid(me, continuePos, all, myIdx)) {
-                return currentDir;
-            }
-
-            for (int m = 0; m < 4; m++) {
-                Point newPos = moveHead(me, m);
-                if (newPos != null && isMoveValid(me, newPos, all, myIdx)) {
-                    return m;
+    // Scores every valid move into moveScores, one pool task per move. A
+    // task aborted by the deadline aborts the pass as in sequential mode;
+    // a task that fails is scored again here.
+    private void scoreInParallel(Snake me, Snake[] all, int myIdx, Point apple, int appleVal, int lookahead) {
+        simulation(); // loaded before the tasks read it
+        List<Callable<Void>> tasks = new ArrayList<>(4);
+        for (int m = 0; m < 4; m++) {
+            Point newPos = moveHead(me, m);
+            if (newPos == null || !isMoveValid(me, newPos, all, myIdx))
+                continue;
+            int move = m;
+            tasks.add(() -> {
+                ScoreScratch s = scorers.get();
+                if (s.turn != turnCount) {
+                    s.board.copySnapshot(board);
+                    s.lookahead.newEpoch();
+                    s.turn = turnCount;
                 }
+                s.aborted = scratch.aborted;
+                s.clockCountdown = CLOCK_CHECK_INTERVAL;
+                s.countSpaceCalls = 0;
+                moveScores[move] = scorePosition(s, newPos, me, all, myIdx, apple, appleVal, lookahead);
+                moveAborted[move] = s.aborted;
+                moveSpaceCalls[move] = s.countSpaceCalls;
+                return null;
+            });
+        }
+
+        List<Future<Void>> results = SEARCH_POOL.invokeAll(tasks);
+        for (int t = 0, m = 0; m < 4; m++) {
+            Point newPos = moveHead(me, m);
+            if (newPos == null || !isMoveValid(me, newPos, all, myIdx))
+                continue;
+            try {
+                results.get(t++).get();
+                scratch.aborted |= moveAborted[m];
+                scratch.countSpaceCalls += moveSpaceCalls[m];
+            } catch (InterruptedException | ExecutionException e) {
+                moveScores[m] = scorePosition(scratch, newPos, me, all, myIdx, apple, appleVal, lookahead);
             }
         }
-        return bestMove != -1 ? bestMove : 0;
+    }
+
+    private void startDeepening() {
+        searchDeadline = moveStartTime + DECISION_DEADLINE_MS * 1_000_000L;
+        scratch.aborted = false;
+        scratch.clockCountdown = CLOCK_CHECK_INTERVAL;
+    }
+
+    private void stopDeepening() {
+        searchDeadline = Long.MAX_VALUE;
+        scratch.aborted = false;
+    }
+
+    private boolean outOfTime() {
+        return scratch.outOfTime(searchDeadline);
     }
 
     private int getCurrentDir(Snake me) {
@@ -933,26 +1263,32 @@ public class MyAgent extends DevelopmentAgent {
         return getDir(neck, head);
     }
 
-    private int scorePosition(Point pos, Snake me, Snake[] all, int myIdx, Point apple, int appleVal) {
+    private int scorePosition(ScoreScratch s, Point pos, Snake me, Snake[] all, int myIdx, Point apple,
+            int appleVal, int lookahead) {
         int score = 0;
 
         // ENHANCED: More sophisticated space evaluation (using 50ms budget)
-        int space = countSpace(pos, me, all, myIdx);
-        int territoryControl = evaluateTerritoryControl(pos, me, all, myIdx);
+        int space = roomAt(s, pos, me, all, myIdx, true);
+        int firstMove = getDir(me.body.get(0), pos);
+        TerritoryMap territory = territory(s, myIdx);
+        int territoryControl = firstMove >= 0 ? territory.ownedVia[firstMove] : territory.owned[myIdx];
         score += space * 15;
-        score += territoryControl * 25; // NEW: Reward controlling key board areas
+        score += territoryControl * 3; // Reward the cells we reach before anyone else
 
         if (space < me.body.size() / 4)
             score -= 5000;
         if (space < 2)
             return Integer.MIN_VALUE;
 
-        // NEW: Future space projection (2-step look-ahead)
-        int futureSpace = projectFutureSpace(pos, me, all, myIdx, 2);
+        // NEW: Future space projection (BASE_LOOKAHEAD steps, deeper in anytime mode)
+        int futureSpace = projectFutureSpace(s, pos, me, all, myIdx, lookahead);
         score += futureSpace * 10;
 
+        // Distances are path lengths on this turn's board
+        int cell = cellOf(pos);
+        int appleCell = inBounds(apple) ? cellOf(apple) : -1;
         if (appleVal >= 1) {
-            int dist = manhattan(pos, apple);
+            int dist = orFar(s.board.appleDistance(appleCell, cell));
             score += (boardWidth - dist) * 120;
 
             if (dist == 0)
@@ -963,11 +1299,11 @@ public class MyAgent extends DevelopmentAgent {
                 score += 2000;
 
             // NEW: Evaluate if apple is in "our territory"
-            if (isInOurTerritory(apple, pos, me, all, myIdx)) {
+            if (isInOurTerritory(s, apple, firstMove, myIdx)) {
                 score += 1000; // Bonus for apples we can safely claim
             }
         } else if (appleVal < 0) {
-            int dist = manhattan(pos, apple);
+            int dist = orFar(s.board.appleDistance(appleCell, cell));
             score += dist * 50;
         }
 
@@ -993,11 +1329,10 @@ public class MyAgent extends DevelopmentAgent {
                 continue;
 
             Point enemyHead = all[i].body.get(0);
-            int distEnemy = manhattan(pos, enemyHead);
+            int distEnemy = orFar(s.board.distance(i, cell));
 
-            SnakeProfile enemyProfile = profiles.get(i);
-            int enemyKills = enemyProfile != null ? enemyProfile.kills : all[i].kills;
-            int enemySize = enemyProfile != null ? enemyProfile.size : all[i].body.size();
+            int enemyKills = profiles[i].kills;
+            int enemySize = profiles[i].size;
 
             if (enemySize > me.body.size() && distEnemy <= 3) {
                 nearStronger = true;
@@ -1054,7 +1389,7 @@ public class MyAgent extends DevelopmentAgent {
 
             if (newPos != null && isMoveValid(me, newPos, all, myIdx)) {
                 int dist = manhattan(newPos, danger);
-                int space = countSpace(newPos, me, all, myIdx);
+                int space = countSpace(scratch, newPos, me, all, myIdx);
 
                 if (space >= 3 && dist > maxDist) {
                     maxDist = dist;
@@ -1084,10 +1419,23 @@ public class MyAgent extends DevelopmentAgent {
         }
     }
 
+    private Point cellToPoint(int cell) {
+        return new Point(cell % boardWidth, cell / boardWidth);
+    }
+
+    private int cellOf(Point p) {
+        return p.y * boardWidth + p.x;
+    }
+
     private boolean inBounds(Point p) {
         return p != null && p.x >= 0 && p.x < boardWidth && p.y >= 0 && p.y < boardHeight;
     }
 
+    // A path length, with no path counted as further than any straight route
+    private int orFar(int dist) {
+        return dist >= 0 ? dist : boardWidth + boardHeight;
+    }
+
     private int manhattan(Point a, Point b) {
         return Math.abs(a.x - b.x) + Math.abs(a.y - b.y);
     }
@@ -1111,149 +1459,132 @@ public class MyAgent extends DevelopmentAgent {
         return -1;
     }
 
-    private Snake parseSnake(String line) {
-        if (line == null || line.isEmpty())
-            return null;
-
-        String[] parts = line.split(" ");
-        Snake s = new Snake();
-
-        if (parts[0].equals("dead")) {
-            s.alive = false;
-            if (parts.length >= 3) {
-                s.length = Integer.parseInt(parts[1]);
-                s.kills = Integer.parseInt(parts[2]);
-            }
-            return s;
+    // Parses one "alive|dead length kills x,y x,y ..." line into s, reusing
+    // its body storage. Kinks are read into kinkBuffer; the body is advanced
+    // from last turn when they line up and rebuilt from them otherwise.
+    private void parseSnake(ProtocolReader in, Snake s) throws IOException {
+        SnakeBody body = (SnakeBody) s.body;
+
+        int status = in.readStatus();
+        s.alive = status == ProtocolReader.ALIVE;
+        s.length = in.readInt();
+        s.kills = in.readInt();
+        if (status == ProtocolReader.DEAD) {
+            body.clear();
+            in.skipLine();
+            return;
         }
 
-        s.alive = parts[0].equals("alive");
-        s.length = Integer.parseInt(parts[1]);
-        s.kills = Integer.parseInt(parts[2]);
-
-        List<Point> kinks = new ArrayList<>();
-        for (int i = 3; i < parts.length; i++) {
-            String[] coords = parts[i].split(",");
-            if (coords.length == 2) {
-                kinks.add(new Point(Integer.parseInt(coords[0]), Integer.parseInt(coords[1])));
+        int kinkCount = 0;
+        while (!in.atLineEnd()) {
+            int x = in.readInt();
+            if (in.peek() != ',') {
+                if (!in.atLineEnd())
+                    in.read(); // not a coordinate pair; skip the stray byte
+                continue;
             }
+            in.read();
+            int y = in.readInt();
+            if (kinkCount + 2 > kinkBuffer.length)
+                kinkBuffer = Arrays.copyOf(kinkBuffer, kinkBuffer.length * 2);
+            kinkBuffer[kinkCount++] = x;
+            kinkBuffer[kinkCount++] = y;
         }
+        in.skipLine();
 
-        s.body = buildBody(kinks, s.length);
-        return s;
+        if (body.tryAdvance(kinkBuffer, kinkCount / 2, s.length)) {
+            bodiesAdvanced++;
+        } else {
+            body.clear();
+            buildBody(kinkBuffer, kinkCount / 2, s.length, body);
+            bodiesRebuilt++;
+        }
     }
 
-    private List<Point> buildBody(List<Point> kinks, int len) {
-        if (kinks.isEmpty())
-            return new ArrayList<>();
+    // Expands kink coordinates (x0, y0, x1, y1, ...) into body, head first,
+    // stopping at len cells
+    private void buildBody(int[] kinks, int kinkCount, int len, SnakeBody body) {
+        if (kinkCount == 0)
+            return;
 
-        List<Point> body = new ArrayList<>();
-        body.add(new Point(kinks.get(0).x, kinks.get(0).y));
+        int headX = kinks[0], headY = kinks[1];
+        body.append(headX, headY);
 
-        for (int i = 0; i < kinks.size() - 1; i++) {
-            Point start = kinks.get(i);
-            Point end = kinks.get(i + 1);
+        for (int i = 0; i < kinkCount - 1; i++) {
+            int startX = kinks[2 * i], startY = kinks[2 * i + 1];
+            int endX = kinks[2 * i + 2], endY = kinks[2 * i + 3];
 
-            int dx = Integer.signum(end.x - start.x);
-            int dy = Integer.signum(end.y - start.y);
+            int dx = Integer.signum(endX - startX);
+            int dy = Integer.signum(endY - startY);
 
-            int x = start.x + dx;
-            int y = start.y + dy;
+            int x = startX + dx;
+            int y = startY + dy;
 
-            while ((x != end.x || y != end.y) && body.size() < len) {
-                body.add(new Point(x, y));
+            while ((x != endX || y != endY) && body.size() < len) {
+                body.append(x, y);
                 x += dx;
                 y += dy;
             }
 
-            if (body.size() < len && !end.equals(kinks.get(0))) {
-                body.add(new Point(end.x, end.y));
+            if (body.size() < len && (endX != headX || endY != headY)) {
+                body.append(endX, endY);
             }
 
             if (body.size() >= len)
                 break;
         }
 
-        while (body.size() > len)
-            body.remove(body.size() - 1);
-
-        return body;
+        body.truncate(len);
     }
 
     // NEW METHODS FOR 50ms OPTIMIZATION
 
-    // Evaluate territory control - areas we dominate
-    private int evaluateTerritoryControl(Point pos, Snake me, Snake[] all, int myIdx) {
-        int controlScore = 0;
-        int radius = 5;
-
-        for (int dx = -radius; dx <= radius; dx++) {
-            for (int dy = -radius; dy <= radius; dy++) {
-                Point p = new Point(pos.x + dx, pos.y + dy);
-                if (!inBounds(p))
-                    continue;
-
-                int ourDist = manhattan(pos, p);
-                int minEnemyDist = Integer.MAX_VALUE;
-
-                for (int i = 0; i < all.length; i++) {
-                    if (i == myIdx || all[i] == null || !all[i].alive || all[i].body.isEmpty())
-                        continue;
-                    Point enemyHead = all[i].body.get(0);
-                    minEnemyDist = Math.min(minEnemyDist, manhattan(enemyHead, p));
-                }
-
-                if (ourDist < minEnemyDist) {
-                    controlScore++; // We're closer to this tile than any enemy
-                }
-            }
-        }
-
-        return controlScore;
+    // This turn's board partition, built on first use and shared by every
+    // territory check; candidate moves are told apart by their first move
+    private TerritoryMap territory(ScoreScratch s, int myIdx) {
+        BoardAnalysis b = s.board;
+        b.territory.build(b.heads, b.sizes, myIdx);
+        return b.territory;
     }
 
     // Project future space availability after N moves
-    private int projectFutureSpace(Point pos, Snake me, Snake[] all, int myIdx, int steps) {
-        if (steps <= 0)
-            return countSpace(pos, me, all, myIdx);
-
-        // Simulate moving to pos
-        Snake virtualMe = cloneSnake(me);
-        virtualMe.body.add(0, pos);
-        if (virtualMe.body.size() > me.body.size()) {
-            virtualMe.body.remove(virtualMe.body.size() - 1);
-        }
-
-        // Find best next move
+    // Results depend only on the turn's state, pos and steps, so they are
+    // shared through the scratch's lookahead table across move orders and
+    // deepening passes, and a table miss only costs time
+    private int projectFutureSpace(ScoreScratch s, Point pos, Snake me, Snake[] all, int myIdx, int steps) {
+        if (steps <= 0 || s.outOfTime(searchDeadline))
+            return roomAt(s, pos, me, all, myIdx, false);
+
+        long key = simulation().hash ^ SimState.key(SimState.K_CALLER, steps, cellOf(pos));
+        int entry = s.lookahead.find(key);
+        if (entry >= 0)
+            return s.lookahead.value(entry);
+
+        // Find best next move. Safety and space are read from this turn's grid,
+        // so there is no simulated body to copy.
         int maxSpace = 0;
         for (int dir = 0; dir < 4; dir++) {
             Point nextPos = new Point(pos.x + dx[dir], pos.y + dy[dir]);
-            if (inBounds(nextPos) && isPositionSafe(nextPos, virtualMe, all)) {
-                int futureSpace = projectFutureSpace(nextPos, virtualMe, all, myIdx, steps - 1);
+            if (inBounds(nextPos) && isPositionSafe(nextPos, me, all)) {
+                int futureSpace = projectFutureSpace(s, nextPos, me, all, myIdx, steps - 1);
                 maxSpace = Math.max(maxSpace, futureSpace);
             }
         }
 
+        // A pass cut short by the clock only saw part of the tree
+        if (!s.aborted)
+            s.lookahead.store(key, steps, TranspositionTable.EXACT, maxSpace, 0);
         return maxSpace;
     }
 
-    // Check if a point is in "our territory" (closer to us than enemies)
-    private boolean isInOurTerritory(Point target, Point ourPos, Snake me, Snake[] all, int myIdx) {
-        int ourDist = manhattan(ourPos, target);
-
-        for (int i = 0; i < all.length; i++) {
-            if (i == myIdx || all[i] == null || !all[i].alive || all[i].body.isEmpty())
-                continue;
-
-            Point enemyHead = all[i].body.get(0);
-            int enemyDist = manhattan(enemyHead, target);
-
-            if (enemyDist < ourDist) {
-                return false; // Enemy is closer
-            }
-        }
-
-        return true;
+    // Check if a point is in "our territory" (we reach it first, and firstMove
+    // starts a shortest path there; -1 accepts any first move)
+    private boolean isInOurTerritory(ScoreScratch s, Point target, int firstMove, int myIdx) {
+        if (!inBounds(target))
+            return false;
+        TerritoryMap territory = territory(s, myIdx);
+        int cell = target.y * boardWidth + target.x;
+        return territory.owner[cell] == myIdx && (firstMove < 0 || (territory.via[cell] & (1 << firstMove)) != 0);
     }
 
     // Check if position is near a wall
@@ -1294,20 +1625,2877 @@ public class MyAgent extends DevelopmentAgent {
         List<Point> body = new ArrayList<>();
     }
 
+    // Body cells of a parsed snake, head first, in a ring buffer that persists
+    // across turns so a normal move is one head push plus a tail trim.
+    // get() hands out one pooled Point per slot that is rewritten in place,
+    // so Points from a parsed body must not be kept past the turn.
+    private static class SnakeBody extends AbstractList<Point> {
+        private Point[] points = new Point[64];
+        private int mask = 63;
+        private int headSlot = 0;
+        private int size = 0;
+
+        @Override
+        public Point get(int i) {
+            if (i < 0 || i >= size)
+                throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+            return points[(headSlot + i) & mask];
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public void clear() {
+            size = 0;
+        }
+
+        void append(int x, int y) {
+            if (size == points.length)
+                grow();
+            write((headSlot + size) & mask, x, y);
+            size++;
+        }
+
+        void pushHead(int x, int y) {
+            if (size == points.length)
+                grow();
+            headSlot = (headSlot - 1) & mask;
+            write(headSlot, x, y);
+            size++;
+        }
+
+        void truncate(int len) {
+            size = Math.max(0, Math.min(size, len));
+        }
+
+        // Moves this body to the state described by the new kink list if it is
+        // last turn's body advanced by one cell (same kinks, optionally grown
+        // or shortened at the tail). Checks cost O(kinks); returns false when
+        // the kinks do not fit, e.g. after a death or respawn.
+        boolean tryAdvance(int[] kinks, int kinkCount, int len) {
+            if (size == 0 || kinkCount < 2 || len < 2)
+                return false;
+
+            int headX = kinks[0], headY = kinks[1];
+            Point oldHead = points[headSlot];
+            int stepX = Integer.signum(kinks[2] - headX), stepY = Integer.signum(kinks[3] - headY);
+            if (oldHead.x != headX + stepX || oldHead.y != headY + stepY)
+                return false;
+
+            // Every later kink must sit at its index in the new body, i.e. one
+            // past its index in the old body; segments must be axis-aligned
+            int index = 0;
+            for (int k = 1; k < kinkCount && index < len; k++) {
+                int segX = kinks[2 * k] - kinks[2 * k - 2];
+                int segY = kinks[2 * k + 1] - kinks[2 * k - 1];
+                if ((segX != 0 && segY != 0) || (segX == 0 && segY == 0))
+                    return false;
+                index += Math.abs(segX) + Math.abs(segY);
+                if (index >= len)
+                    break;
+                if (index - 1 >= size)
+                    return false;
+                Point old = get(index - 1);
+                if (old.x != kinks[2 * k] || old.y != kinks[2 * k + 1])
+                    return false;
+            }
+            int newSize = Math.min(len, index + 1);
+            if (newSize - 1 > size)
+                return false;
+
+            pushHead(headX, headY);
+            truncate(newSize);
+            return true;
+        }
+
+        private void write(int slot, int x, int y) {
+            Point p = points[slot];
+            if (p == null) {
+                points[slot] = new Point(x, y);
+            } else {
+                p.x = x;
+                p.y = y;
+            }
+        }
+
+        private void grow() {
+            Point[] larger = new Point[points.length * 2];
+            for (int i = 0; i < size; i++)
+                larger[i] = points[(headSlot + i) & mask];
+            points = larger;
+            mask = larger.length - 1;
+            headSlot = 0;
+        }
+    }
+
+    // Drives a throwaway agent through random boards in the game protocol:
+    // snakes are random walks of up to 40 cells, twisting like they do in
+    // the crowded early game (longer ones make interpreted turns slow). Each turn
+    // parses the state (parseSnake), analyses it and runs decideMove, which
+    // reaches countSpace and scorePosition, then an A* path to the apple.
+    private static class WarmUp {
+        private final int width, height, nSnakes;
+        private final long deadline;
+        private final SplittableRandom rng;
+        private final boolean[] used;
+
+        private WarmUp(int width, int height, int nSnakes, long seed) {
+            this.width = width;
+            this.height = height;
+            this.nSnakes = nSnakes;
+            deadline = System.nanoTime() + WARMUP_MS * 1_000_000L;
+            rng = new SplittableRandom(seed);
+            used = new boolean[width * height];
+        }
+
+        // Plays synthetic turns until the deadline or until game input is waiting
+        void run(ProtocolReader game) {
+            MyAgent agent = new MyAgent();
+            agent.throwaway = true;
+            try {
+                StringBuilder sb = new StringBuilder();
+                sb.append(nSnakes).append(' ').append(width).append(' ').append(height).append(" 1\n");
+                agent.readInit(reader(sb));
+                while (System.nanoTime() < deadline && !game.hasInput()) {
+                    sb.setLength(0);
+                    turn(sb);
+                    if (agent.readTurn(reader(sb)))
+                        agent.warmTurn();
+                }
+            } catch (IOException | RuntimeException e) {
+                // warm-up is best effort; the real agent is untouched
+            }
+        }
+
+        private static ProtocolReader reader(StringBuilder sb) {
+            return new ProtocolReader(new ByteArrayInputStream(sb.toString().getBytes(StandardCharsets.US_ASCII)));
+        }
+
+        private void turn(StringBuilder sb) {
+            Arrays.fill(used, false);
+            int cells = width * height;
+            int maxLen = Math.max(3, Math.min(40, cells / (3 * nSnakes)));
+            String[] lines = new String[nSnakes];
+            for (int i = 0; i < nSnakes; i++)
+                lines[i] = snake(3 + rng.nextInt(maxLen - 2));
+            int apple = Math.max(0, freeCell());
+            sb.append(apple % width).append(' ').append(apple / width).append('\n');
+            sb.append(rng.nextInt(nSnakes)).append('\n');
+            for (String line : lines)
+                sb.append(line).append('\n');
+        }
+
+        // A random walk of up to len cells, every cell listed as a kink; a
+        // dead snake if there is no room to start one
+        private String snake(int len) {
+            int cell = freeCell();
+            StringBuilder line = new StringBuilder();
+            int placed = 0;
+            while (cell >= 0 && placed < len) {
+                used[cell] = true;
+                line.append(' ').append(cell % width).append(',').append(cell / width);
+                placed++;
+                int start = rng.nextInt(4), next = -1;
+                for (int k = 0; k < 4 && next < 0; k++) {
+                    int d = (start + k) & 3;
+                    int x = cell % width + DX[d], y = cell / width + DY[d];
+                    if (x >= 0 && y >= 0 && x < width && y < height && !used[y * width + x])
+                        next = y * width + x;
+                }
+                cell = next;
+            }
+            if (placed < 2)
+                return "dead " + len + " 0";
+            return "alive " + placed + " " + rng.nextInt(3) + line;
+        }
+
+        // A random empty cell, or -1 if a few tries find none
+        private int freeCell() {
+            for (int tries = 0; tries < 64; tries++) {
+                int cell = rng.nextInt(width * height);
+                if (!used[cell])
+                    return cell;
+            }
+            return -1;
+        }
+
+        private static final int[] DX = { 0, 0, -1, 1 };
+        private static final int[] DY = { -1, 1, 0, 0 };
+    }
+
+    // One synthetic turn on the throwaway agent (see WarmUp)
+    private void warmTurn() {
+        analyseBoard();
+        Snake me = snakes[mySnakeNum];
+        if (me.alive && !me.body.isEmpty()) {
+            decideMove(me, snakes, mySnakeNum, apple);
+            findPathAStar(me.body.get(0), apple, me, snakes, mySnakeNum);
+        }
+    }
+
+    // Byte-level reader for the game protocol. Reads System.in in blocks into
+    // one reused buffer and parses integers and status words in place.
+    private static class ProtocolReader {
+        static final int ALIVE = 0, DEAD = 1, OTHER = 2;
+
+        private final InputStream in;
+        private final byte[] buf = new byte[1 << 16];
+        private int pos = 0, limit = 0;
+        private ReplayRecorder tap;
+        private int tapFrom;
+
+        ProtocolReader(InputStream in) {
+            this.in = in;
+        }
+
+        // Next byte without consuming it, blocking until input arrives; -1 at end of stream
+        int peek() throws IOException {
+            if (pos == limit) {
+                if (tap != null) {
+                    tap.capture(buf, tapFrom, limit - tapFrom);
+                    tapFrom = 0;
+                }
+                limit = in.read(buf, 0, buf.length);
+                pos = 0;
+                if (limit <= 0) {
+                    limit = 0;
+                    return -1;
+                }
+            }
+            return buf[pos];
+        }
+
+        // Whether input is buffered or can be read without blocking
+        boolean hasInput() throws IOException {
+            return pos < limit || in.available() > 0;
+        }
+
+        // Copies every byte consumed from here until untap() to recorder (if any)
+        void tap(ReplayRecorder recorder) {
+            tap = recorder;
+            tapFrom = pos;
+        }
+
+        void untap() {
+            if (tap != null)
+                tap.capture(buf, tapFrom, pos - tapFrom);
+            tap = null;
+        }
+
+        int read() throws IOException {
+            int b = peek();
+            if (b != -1)
+                pos++;
+            return b;
+        }
+
+        private int skipSpaces() throws IOException {
+            int b = peek();
+            while (b == ' ' || b == '\t' || b == '\r') {
+                pos++;
+                b = peek();
+            }
+            return b;
+        }
+
+        boolean atLineEnd() throws IOException {
+            int b = skipSpaces();
+            return b == '\n' || b == -1;
+        }
+
+        void skipLine() throws IOException {
+            int b;
+            do {
+                b = read();
+            } while (b != '\n' && b != -1);
+        }
+
+        int readInt() throws IOException {
+            int b = skipSpaces();
+            boolean negative = b == '-';
+            if (negative) {
+                pos++;
+                b = peek();
+            }
+            int value = 0;
+            while (b >= '0' && b <= '9') {
+                value = value * 10 + (b - '0');
+                pos++;
+                b = peek();
+            }
+            return negative ? -value : value;
+        }
+
+        // Consumes the status word at the start of a snake line
+        int readStatus() throws IOException {
+            int first = skipSpaces();
+            int len = 0;
+            int b = first;
+            while (b != ' ' && b != '\n' && b != '\r' && b != -1) {
+                len++;
+                pos++;
+                b = peek();
+            }
+            if (first == 'a' && len == 5)
+                return ALIVE;
+            if (first == 'd' && len == 4)
+                return DEAD;
+            return OTHER;
+        }
+    }
+
+    // Append-only binary log of turns. Layout (big-endian):
+    //   magic (int), seed (long), init line length (int) and bytes
+    //   per turn: input length (int) and raw bytes, move (byte), branch (byte),
+    //   decision time in microseconds (int)
+    // A length of 0 or -1 ends the log. The file is memory-mapped a window at
+    // a time, so a record is one buffer copy and survives the process being
+    // killed; the next window is mapped when one fills up.
+    private static class ReplayRecorder {
+        static final int MAGIC = 0x534E4B31; // "SNK1"
+        private static final int WINDOW = 1 << 20;
+
+        private final FileChannel channel;
+        private MappedByteBuffer map;
+        private long mapOffset = 0;
+        private byte[] staged = new byte[4096];
+        private int stagedLength = 0;
+
+        ReplayRecorder(Path path, long seed) throws IOException {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            map = channel.map(FileChannel.MapMode.READ_WRITE, 0, WINDOW);
+            map.putInt(MAGIC).putLong(seed);
+        }
+
+        void capture(byte[] bytes, int offset, int length) {
+            if (stagedLength + length > staged.length)
+                staged = Arrays.copyOf(staged, Math.max(staged.length * 2, stagedLength + length));
+            System.arraycopy(bytes, offset, staged, stagedLength, length);
+            stagedLength += length;
+        }
+
+        void endHeader() throws IOException {
+            ensure(4 + stagedLength);
+            map.putInt(stagedLength).put(staged, 0, stagedLength);
+            stagedLength = 0;
+        }
+
+        void endTurn(int move, int branch, long micros) throws IOException {
+            ensure(4 + stagedLength + 6);
+            map.putInt(stagedLength).put(staged, 0, stagedLength);
+            map.put((byte) move).put((byte) branch).putInt((int) Math.min(micros, Integer.MAX_VALUE));
+            stagedLength = 0;
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (map.remaining() >= bytes)
+                return;
+            mapOffset += map.position();
+            map = channel.map(FileChannel.MapMode.READ_WRITE, mapOffset, Math.max(WINDOW, bytes));
+        }
+
+        // Ends the log; the mapped tail past the marker stays zero-filled
+        void close() throws IOException {
+            ensure(4);
+            map.putInt(-1);
+            channel.close();
+        }
+    }
+
+    // Management beans for stats mode. They live in a holder class so they
+    // are looked up, and their classes loaded, only once stats are on.
+    // Allocation counts need HotSpot's ThreadMXBean; without it they read -1.
+    private static class Telemetry {
+        private static final com.sun.management.ThreadMXBean THREADS = hotSpotThreads();
+        private static final List<GarbageCollectorMXBean> COLLECTORS = ManagementFactory.getGarbageCollectorMXBeans();
+
+        private static com.sun.management.ThreadMXBean hotSpotThreads() {
+            try {
+                java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+                return bean instanceof com.sun.management.ThreadMXBean ? (com.sun.management.ThreadMXBean) bean : null;
+            } catch (LinkageError e) {
+                return null; // no jdk.management module
+            }
+        }
+
+        // Bytes this thread has allocated so far, or -1 if unsupported
+        static long allocatedBytes() {
+            return THREADS != null ? THREADS.getCurrentThreadAllocatedBytes() : -1;
+        }
+
+        static long gcMillis() {
+            long total = 0;
+            for (GarbageCollectorMXBean gc : COLLECTORS)
+                total += Math.max(0, gc.getCollectionTime());
+            return total;
+        }
+
+        static long gcCount() {
+            long total = 0;
+            for (GarbageCollectorMXBean gc : COLLECTORS)
+                total += Math.max(0, gc.getCollectionCount());
+            return total;
+        }
+    }
+
+    // Fixed-size log-linear histogram of non-negative values: exact below 16,
+    // then 8 buckets per power of two (about 12% resolution). Percentiles
+    // report the bucket's upper bound.
+    private static class Histogram {
+        private static final int SUB_BITS = 3, SUB = 1 << SUB_BITS, LINEAR = 2 * SUB;
+        private final int[] buckets = new int[LINEAR + (63 - SUB_BITS) * SUB];
+        int count;
+        long max;
+
+        void record(long value) {
+            buckets[index(Math.max(0, value))]++;
+            count++;
+            max = Math.max(max, value);
+        }
+
+        long percentile(double q) {
+            long rank = (long) Math.ceil(q * count), seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank && seen > 0)
+                    return Math.min(max, upperBound(i));
+            }
+            return max;
+        }
+
+        private static int index(long v) {
+            if (v < LINEAR)
+                return (int) v;
+            int exp = 63 - Long.numberOfLeadingZeros(v);
+            int sub = (int) (v >>> (exp - SUB_BITS)) & (SUB - 1);
+            return LINEAR + (exp - SUB_BITS - 1) * SUB + sub;
+        }
+
+        private static long upperBound(int i) {
+            if (i < LINEAR)
+                return i;
+            int exp = (i - LINEAR) / SUB + SUB_BITS + 1, sub = (i - LINEAR) % SUB;
+            return ((long) (SUB + sub + 1) << (exp - SUB_BITS)) - 1;
+        }
+    }
+
     private static class SnakeProfile {
         int size;
         int kills;
+        int lastHead = -1;
     }
 
-    private static class PathNode {
-        Point p;
-        int g;
-        int f;
+    // Online model of each opponent's move choices, kept for the whole game.
+    // Moves are counted relative to the heading (straight, left, right) in a
+    // context of where a worthwhile apple lies, whether the board edge is
+    // straight ahead and whether another head is within NEAR_HEAD cells.
+    // Counts start from a prior favouring straight, so an unseen context
+    // predicts what the old fixed guess did.
+    private static class OpponentModel {
+        static final int STRAIGHT = 0, LEFT = 1, RIGHT = 2;
+        private static final int[] LEFT_OF = { 2, 3, 1, 0 }, RIGHT_OF = { 3, 2, 0, 1 };
+        private static final int[] DX = { 0, 0, -1, 1 };
+        private static final int[] DY = { -1, 1, 0, 0 };
+        // Apple: none, ahead, left, right, behind; x edge ahead; x head near
+        private static final int CONTEXTS = 5 * 2 * 2;
+        private static final int[] PRIOR = { 2, 1, 1 };
+        private static final int NEAR_HEAD = 3;
+
+        final int width, height;
+        private final int[][] counts;
+
+        OpponentModel(int width, int height, int nSnakes) {
+            this.width = width;
+            this.height = height;
+            counts = new int[nSnakes][CONTEXTS * 3];
+            for (int[] c : counts) {
+                for (int k = 0; k < c.length; k++)
+                    c[k] = PRIOR[k % 3];
+            }
+        }
+
+        static int absolute(int facing, int rel) {
+            return rel == STRAIGHT ? facing : rel == LEFT ? LEFT_OF[facing] : RIGHT_OF[facing];
+        }
+
+        // Relative move from facing to dir, or -1 for a reversal
+        static int relative(int facing, int dir) {
+            return dir == facing ? STRAIGHT : dir == LEFT_OF[facing] ? LEFT : dir == RIGHT_OF[facing] ? RIGHT : -1;
+        }
+
+        boolean isNear(int a, int b) {
+            return Math.abs(a % width - b % width) + Math.abs(a / width - b / width) <= NEAR_HEAD;
+        }
+
+        // apple is -1 when there is none worth taking
+        int context(int head, int facing, int apple, boolean headNear) {
+            int hx = head % width, hy = head / width;
+            int where = 0;
+            if (apple >= 0) {
+                int ax = apple % width - hx, ay = apple / width - hy;
+                int left = LEFT_OF[facing];
+                int ahead = ax * DX[facing] + ay * DY[facing];
+                int side = ax * DX[left] + ay * DY[left];
+                where = ahead > 0 && ahead >= Math.abs(side) ? 1 : side > 0 ? 2 : side < 0 ? 3 : 4;
+            }
+            int ex = hx + DX[facing], ey = hy + DY[facing];
+            boolean edge = ex < 0 || ey < 0 || ex >= width || ey >= height;
+            return (where * 2 + (edge ? 1 : 0)) * 2 + (headNear ? 1 : 0);
+        }
+
+        // Context of snake i's next move in a simulated state
+        int context(SimState s, int i) {
+            int head = s.head(i);
+            boolean headNear = false;
+            for (int j = 0; j < s.n; j++) {
+                if (j != i && s.alive[j] && isNear(head, s.head(j)))
+                    headNear = true;
+            }
+            return context(head, s.facing(i), s.appleValue > 0 ? s.apple : -1, headNear);
+        }
 
-        PathNode(Point p, int g, int h) {
-            this.p = p;
-            this.g = g;
-            this.f = g + h;
+        // Likeliest open move of snake i in s (straight ahead if all are
+        // blocked), or -1 for a one-cell snake
+        int predict(SimState s, int i) {
+            int facing = s.facing(i);
+            if (facing < 0)
+                return -1;
+            int context = context(s, i);
+            int head = s.head(i);
+            int best = facing;
+            double bestP = -1;
+            for (int rel = 0; rel < 3; rel++) {
+                int dir = absolute(facing, rel);
+                if (!s.isOpen(s.neighbour(head, dir)))
+                    continue;
+                double p = probability(i, context, rel);
+                if (p > bestP) {
+                    bestP = p;
+                    best = dir;
+                }
+            }
+            return best;
+        }
+
+        // Moves observed, how many were the likeliest beforehand, and how many
+        // the model gave under the search's prune threshold
+        int observed, predicted, unlikely;
+
+        void observe(int snake, int context, int rel) {
+            int[] c = counts[snake];
+            int base = context * 3;
+            int likeliest = c[base] >= c[base + 1] && c[base] >= c[base + 2] ? STRAIGHT
+                    : c[base + 1] >= c[base + 2] ? LEFT : RIGHT;
+            observed++;
+            if (rel == likeliest)
+                predicted++;
+            if (probability(snake, context, rel) < SimultaneousSearch.PRUNE_PROBABILITY)
+                unlikely++;
+            c[base + rel]++;
+        }
+
+        String summary() {
+            return observed + " moves, " + (observed == 0 ? 0 : predicted * 100 / observed) + "% predicted, "
+                    + unlikely + " under the prune threshold";
+        }
+
+        double probability(int snake, int context, int rel) {
+            int[] c = counts[snake];
+            int base = context * 3;
+            return (double) c[base + rel] / (c[base] + c[base + 1] + c[base + 2]);
+        }
+    }
+
+    // Everything derived from one board state: the occupancy grid, per-snake
+    // head/size summaries, free regions, A* step costs and any apple paths
+    // computed ahead of time. The live turn owns one; the speculator fills
+    // others for predicted boards and hands over the one that comes true.
+    private static class BoardAnalysis {
+        private static final int[] DX = { 0, 0, -1, 1 };
+        private static final int[] DY = { -1, 1, 0, 0 };
+
+        final int width, height;
+        final int[] occupancy;
+        // Turn at which each cell is free to enter: 0 if empty, else the
+        // segment's ttl plus its snake's owed growth (the tail waits that long)
+        final int[] expiry;
+        // Per snake: head and neck cells (-1 if dead or too short), body
+        // size, and growth still owed (protocol length minus visible body)
+        final int[] heads, necks, sizes, growth;
+        // Time-aware space per start cell, valid while spaceStamp == spaceGen
+        private final int[] spaceCache, spaceStamp;
+        private int spaceGen = 1;
+        final BfsEngine bfs;
+        final RegionIndex regions;
+        final TerritoryMap territory;
+        final AStarEngine astar;
+        private final CutIndex cuts;
+        private final DistanceField distances;
+        boolean stepCostsReady;
+        private boolean cutsReady;
+
+        // Apple paths computed by the speculator, valid for one lookup
+        int bfsPathStart = -1, bfsPathGoal, bfsPathLen;
+        int astarPathStart = -1, astarPathGoal, astarPathLen;
+        long key;
+
+        BoardAnalysis(int width, int height, int nSnakes) {
+            this.width = width;
+            this.height = height;
+            occupancy = new int[width * height];
+            expiry = new int[width * height];
+            spaceCache = new int[width * height];
+            spaceStamp = new int[width * height];
+            heads = new int[nSnakes];
+            necks = new int[nSnakes];
+            sizes = new int[nSnakes];
+            growth = new int[nSnakes];
+            bfs = new BfsEngine(width, height, expiry);
+            regions = new RegionIndex(width, height, occupancy);
+            territory = new TerritoryMap(width, height, occupancy);
+            astar = new AStarEngine(width, height, expiry);
+            cuts = new CutIndex(width, height, occupancy);
+            distances = new DistanceField(width, height, occupancy, nSnakes);
+        }
+
+        // Rebuilds the grid and snake summaries from parsed snakes. Regions
+        // and step costs must be rebuilt separately.
+        void load(Snake[] snakes) {
+            Arrays.fill(occupancy, 0);
+            for (int i = 0; i < snakes.length; i++) {
+                Snake s = snakes[i];
+                heads[i] = necks[i] = -1;
+                sizes[i] = growth[i] = 0;
+                if (s == null || !s.alive || s.body == null || s.body.isEmpty())
+                    continue;
+                int size = s.body.size();
+                sizes[i] = size;
+                growth[i] = Math.max(0, s.length - size);
+                heads[i] = cellOf(s.body.get(0));
+                if (size >= 2)
+                    necks[i] = cellOf(s.body.get(1));
+
+                // Walk tail to head so overlapping segments keep the longest-lived entry
+                for (int j = size - 1; j >= 0; j--) {
+                    int cell = cellOf(s.body.get(j));
+                    if (cell >= 0)
+                        mark(cell, i, size - j);
+                }
+            }
+            buildExpiry();
+            stepCostsReady = cutsReady = false;
+            territory.invalidate();
+            distances.invalidate();
+            bfsPathStart = astarPathStart = -1;
+        }
+
+        // Predicts the board one turn after from: snake i's head moves to
+        // moves[i] (-1 removes the snake) and tails retract unless growth is owed
+        void advance(BoardAnalysis from, int[] moves) {
+            for (int c = 0; c < occupancy.length; c++) {
+                int occ = from.occupancy[c];
+                if (occ == 0) {
+                    occupancy[c] = 0;
+                    continue;
+                }
+                int owner = (occ >>> OCC_OWNER_SHIFT) - 1;
+                if (moves[owner] < 0) {
+                    occupancy[c] = 0;
+                } else if (from.growth[owner] > 0) {
+                    occupancy[c] = occ;
+                } else {
+                    occupancy[c] = (occ & OCC_TTL_MASK) > 1 ? occ - 1 : 0;
+                }
+            }
+            for (int i = 0; i < heads.length; i++) {
+                if (moves[i] < 0 || from.heads[i] < 0) {
+                    heads[i] = necks[i] = -1;
+                    sizes[i] = growth[i] = 0;
+                    continue;
+                }
+                boolean grows = from.growth[i] > 0;
+                heads[i] = moves[i];
+                necks[i] = from.heads[i];
+                sizes[i] = from.sizes[i] + (grows ? 1 : 0);
+                growth[i] = grows ? from.growth[i] - 1 : 0;
+                mark(moves[i], i, sizes[i]);
+            }
+            buildExpiry();
+            stepCostsReady = cutsReady = false;
+            territory.invalidate();
+            distances.invalidate();
+            bfsPathStart = astarPathStart = -1;
+        }
+
+        private void buildExpiry() {
+            for (int c = 0; c < occupancy.length; c++) {
+                int occ = occupancy[c];
+                expiry[c] = occ == 0 ? 0 : (occ & OCC_TTL_MASK) + growth[(occ >>> OCC_OWNER_SHIFT) - 1];
+            }
+            if (++spaceGen == Integer.MAX_VALUE) {
+                Arrays.fill(spaceStamp, 0);
+                spaceGen = 1;
+            }
+        }
+
+        // Cells reachable from start when it is entered at turn t0 (cached
+        // per start cell, so a cell must always be asked with the same t0)
+        int timedSpace(int start, int t0) {
+            if (spaceStamp[start] != spaceGen) {
+                spaceCache[start] = bfs.timedSpace(start, t0, null, 0, Integer.MAX_VALUE);
+                spaceStamp[start] = spaceGen;
+            }
+            return spaceCache[start];
+        }
+
+        private void mark(int cell, int owner, int ttl) {
+            if ((occupancy[cell] & OCC_TTL_MASK) < ttl)
+                occupancy[cell] = ((owner + 1) << OCC_OWNER_SHIFT) | ttl;
+        }
+
+        private int cellOf(Point p) {
+            if (p.x < 0 || p.y < 0 || p.x >= width || p.y >= height)
+                return -1;
+            return p.y * width + p.x;
+        }
+
+        // Cost of stepping into each cell this turn: 1, plus 3 within two steps of
+        // an enemy head (8 more when adjacent to one at least our size), minus a
+        // bonus for the free space behind the cell
+        void buildStepCosts(int myIdx) {
+            int[] cost = astar.stepCost;
+            int mySize = sizes[myIdx];
+            for (int cell = 0; cell < cost.length; cell++) {
+                int spaceBonus = Math.max(0, (regions.spaceAt(cell) - mySize) / 4);
+                cost[cell] = 1 - spaceBonus;
+            }
+
+            for (int j = 0; j < heads.length; j++) {
+                if (j == myIdx || heads[j] < 0)
+                    continue;
+                int hx = heads[j] % width, hy = heads[j] / width;
+                boolean threat = sizes[j] >= mySize;
+                for (int ox = -2; ox <= 2; ox++) {
+                    for (int oy = -2; oy <= 2; oy++) {
+                        int dist = Math.abs(ox) + Math.abs(oy);
+                        int x = hx + ox, y = hy + oy;
+                        if (dist > 2 || x < 0 || y < 0 || x >= width || y >= height)
+                            continue;
+                        cost[y * width + x] += (dist == 1 && threat) ? 11 : 3;
+                    }
+                }
+            }
+            stepCostsReady = true;
+        }
+
+        // Runs the BFS and A* apple searches decideMove will ask for first
+        void precomputePaths(int start, int goal, int myIdx) {
+            bfsPathLen = bfs.search(start, goal) ? bfs.reconstruct(start, goal) : 0;
+            bfsPathStart = start;
+            bfsPathGoal = goal;
+            if (!stepCostsReady)
+                buildStepCosts(myIdx);
+            astarPathLen = astar.search(start, goal);
+            astarPathStart = start;
+            astarPathGoal = goal;
+        }
+
+        // Path length from snake's head to cell, -1 if unreachable (or dead)
+        int distance(int snake, int cell) {
+            return distances.distance(snake, heads[snake], cell);
+        }
+
+        // Path length from the apple at appleCell to cell, -1 if unreachable
+        int appleDistance(int appleCell, int cell) {
+            return distances.distance(heads.length, appleCell, cell);
+        }
+
+        // Articulation analysis around snake me's head, built on first use
+        CutIndex cuts(int me) {
+            if (!cutsReady) {
+                cuts.build(heads[me], me);
+                cutsReady = true;
+            }
+            return cuts;
+        }
+
+        boolean takeCachedBfsPath(int start, int goal) {
+            boolean hit = bfsPathStart == start && bfsPathGoal == goal;
+            bfsPathStart = -1;
+            return hit;
+        }
+
+        boolean takeCachedAStarPath(int start, int goal) {
+            boolean hit = astarPathStart == start && astarPathGoal == goal;
+            astarPathStart = -1;
+            return hit;
+        }
+
+        long hash(int myIdx, int apple) {
+            long h = myIdx * 31L + apple;
+            for (int occ : occupancy)
+                h = h * 0x9E3779B97F4A7C15L + occ;
+            return h;
+        }
+
+        // Copies the state needed to predict from this board (not the analysis)
+        void copySnapshot(BoardAnalysis other) {
+            System.arraycopy(other.occupancy, 0, occupancy, 0, occupancy.length);
+            copySnakes(other);
+            buildExpiry();
+            territory.invalidate();
+            distances.invalidate();
+            cutsReady = false;
+        }
+
+        void copySnakes(BoardAnalysis other) {
+            System.arraycopy(other.heads, 0, heads, 0, heads.length);
+            System.arraycopy(other.necks, 0, necks, 0, necks.length);
+            System.arraycopy(other.sizes, 0, sizes, 0, sizes.length);
+            System.arraycopy(other.growth, 0, growth, 0, growth.length);
+        }
+
+        // Legal next head cells for snake i, straight ahead first; returns the count
+        int headOptions(int i, int[] out) {
+            int head = heads[i];
+            int hx = head % width, hy = head / width;
+            int n = 0;
+            if (necks[i] >= 0) {
+                int sx = 2 * hx - necks[i] % width, sy = 2 * hy - necks[i] / width;
+                if (sx >= 0 && sy >= 0 && sx < width && sy < height
+                        && (occupancy[sy * width + sx] & OCC_TTL_MASK) <= 1)
+                    out[n++] = sy * width + sx;
+            }
+            for (int d = 0; d < 4; d++) {
+                int nx = hx + DX[d], ny = hy + DY[d];
+                if (nx < 0 || ny < 0 || nx >= width || ny >= height)
+                    continue;
+                int cell = ny * width + nx;
+                if (cell == necks[i] || (n > 0 && cell == out[0]) || (occupancy[cell] & OCC_TTL_MASK) > 1)
+                    continue;
+                out[n++] = cell;
+            }
+            return n;
+        }
+    }
+
+    // Runs on a daemon thread between our reply and the next state. It
+    // predicts boards from our chosen move and each opponent's legal moves
+    // (straight-ahead first, fewest turns first) and fully analyses each one.
+    // collect() stops the worker and returns the slot that matches the real
+    // board exactly, if any; a match replaces the live analysis wholesale.
+    private static class Speculator {
+        private final ExecutorService worker = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "speculator");
+            t.setDaemon(true);
+            return t;
+        });
+        private final BoardAnalysis base;
+        private final BoardAnalysis[] slots;
+        private final int[][] options;
+        private final int[] optionCount, choice, moves;
+        private volatile boolean cancelled;
+        private Future<?> pending;
+        private int ready; // slots filled by the last run; read only after pending completes
+        int hits = 0, misses = 0;
+
+        Speculator(int width, int height, int nSnakes, int maxBoards) {
+            base = new BoardAnalysis(width, height, nSnakes);
+            slots = new BoardAnalysis[maxBoards];
+            for (int i = 0; i < maxBoards; i++)
+                slots[i] = new BoardAnalysis(width, height, nSnakes);
+            options = new int[nSnakes][4];
+            optionCount = new int[nSnakes];
+            choice = new int[nSnakes];
+            moves = new int[nSnakes];
+        }
+
+        void start(BoardAnalysis live, int myIdx, int myNext, int apple) {
+            base.copySnapshot(live);
+            cancelled = false;
+            ready = 0;
+            pending = worker.submit(() -> speculate(myIdx, myNext, apple));
+        }
+
+        BoardAnalysis collect(BoardAnalysis live, int myIdx, int apple) {
+            if (pending == null)
+                return null;
+            cancelled = true;
+            try {
+                pending.get();
+            } catch (InterruptedException | ExecutionException e) {
+                ready = 0;
+            }
+            pending = null;
+
+            // The key covers the apple cell. Expiry, regions and the space cache
+            // were built from the predicted growth, so owed growth must match
+            // too (an apple eaten or respawned changes it).
+            long key = live.hash(myIdx, apple);
+            for (int k = 0; k < ready; k++) {
+                BoardAnalysis candidate = slots[k];
+                if (candidate.key == key && Arrays.equals(candidate.growth, live.growth)
+                        && Arrays.equals(candidate.occupancy, live.occupancy)) {
+                    slots[k] = live;
+                    candidate.copySnakes(live);
+                    hits++;
+                    return candidate;
+                }
+            }
+            misses++;
+            return null;
+        }
+
+        private void speculate(int myIdx, int myNext, int apple) {
+            // Eating the apple changes it and our length, so there is nothing to match
+            if (myNext == apple)
+                return;
+
+            int n = base.heads.length;
+            for (int i = 0; i < n; i++) {
+                if (i == myIdx) {
+                    options[i][0] = myNext;
+                    optionCount[i] = 1;
+                } else if (base.heads[i] < 0) {
+                    options[i][0] = -1;
+                    optionCount[i] = 1;
+                } else {
+                    optionCount[i] = base.headOptions(i, options[i]);
+                    if (optionCount[i] == 0) {
+                        options[i][0] = -1; // boxed in: predict the snake dies
+                        optionCount[i] = 1;
+                    }
+                }
+            }
+
+            for (int turns = 0; turns < n; turns++) {
+                Arrays.fill(choice, 0);
+                do {
+                    int deviations = 0;
+                    for (int i = 0; i < n; i++) {
+                        if (choice[i] > 0)
+                            deviations++;
+                        moves[i] = options[i][choice[i]];
+                    }
+                    if (deviations != turns)
+                        continue;
+                    if (cancelled || ready == slots.length)
+                        return;
+
+                    BoardAnalysis slot = slots[ready];
+                    slot.advance(base, moves);
+                    slot.regions.build(myIdx);
+                    slot.precomputePaths(myNext, apple, myIdx);
+                    slot.key = slot.hash(myIdx, apple);
+                    ready++;
+                } while (nextChoice());
+            }
+        }
+
+        // Odometer step over every snake's option index
+        private boolean nextChoice() {
+            for (int i = 0; i < choice.length; i++) {
+                if (++choice[i] < optionCount[i])
+                    return true;
+                choice[i] = 0;
+            }
+            return false;
+        }
+    }
+
+    // Compact game state for simulation. Bodies are ring buffers of cell
+    // indices and the grid counts segments per cell, so one joint move is O(1)
+    // per snake (O(length) only for a snake that dies). step() applies the
+    // game rules to a joint move and undo() reverts the last step exactly.
+    private static class SimState {
+        private static final int[] DX = { 0, 0, -1, 1 };
+        private static final int[] DY = { -1, 1, 0, 0 };
+        // Undo frame: apple, apple value, hash low and high words, then per
+        // snake the fields below
+        private static final int F_ALIVE = 0, F_TAIL = 1, F_GROWTH = 2, F_KILLS = 3, F_HEAD = 4, F_OWNER = 5,
+                F_DIED = 6, F_SHRINK = 7;
+        private static final int HEADER = 4, SNAKE_FRAME = 8;
+        // Zobrist feature kinds; K_CALLER is free for callers to key their
+        // own parameters into a state hash
+        static final int K_BODY = 0, K_HEAD = 1, K_GROWTH = 2, K_APPLE = 3, K_CALLER = 4;
+
+        final int width, height, n;
+        final int[] grid, gridOwner;
+        final int[][] body;
+        final int mask;
+        final int[] headSlot, len, growth, kills;
+        final boolean[] alive;
+        int apple, appleValue;
+        // Zobrist hash of bodies, heads, owed growth and the apple, kept up
+        // to date by every move and undo
+        long hash;
+
+        private final int[] newHead;
+        private int[] undo;
+        private int undoTop = 0;
+        private final int frameSize;
+        // makeMove frames: snake, vacated tail (-1 if it grew), new head,
+        // previous owner of the head cell
+        private int[] moves = new int[4 * 16];
+        private int movesTop = 0;
+
+        SimState(int width, int height, int n) {
+            this.width = width;
+            this.height = height;
+            this.n = n;
+            int cells = width * height;
+            grid = new int[cells];
+            gridOwner = new int[cells];
+            int capacity = Integer.highestOneBit(Math.max(2, cells - 1)) << 1;
+            mask = capacity - 1;
+            body = new int[n][capacity];
+            headSlot = new int[n];
+            len = new int[n];
+            growth = new int[n];
+            kills = new int[n];
+            alive = new boolean[n];
+            newHead = new int[n];
+            frameSize = HEADER + SNAKE_FRAME * n;
+            undo = new int[frameSize * 64];
+        }
+
+        void load(Snake[] snakes, int appleCell, int appleVal) {
+            Arrays.fill(grid, 0);
+            undoTop = 0;
+            movesTop = 0;
+            apple = appleCell;
+            appleValue = appleVal;
+            for (int i = 0; i < n; i++) {
+                Snake s = snakes[i];
+                headSlot[i] = 0;
+                len[i] = 0;
+                growth[i] = 0;
+                kills[i] = s == null ? 0 : s.kills;
+                alive[i] = s != null && s.alive && s.body != null && !s.body.isEmpty();
+                if (!alive[i])
+                    continue;
+                for (Point p : s.body) {
+                    if (p.x < 0 || p.y < 0 || p.x >= width || p.y >= height)
+                        continue;
+                    int cell = p.y * width + p.x;
+                    body[i][len[i]++] = cell;
+                    grid[cell]++;
+                    gridOwner[cell] = i;
+                }
+                growth[i] = Math.max(0, s.length - len[i]);
+                alive[i] = len[i] > 0;
+            }
+            hash = computeHash();
+        }
+
+        // Zobrist key of one feature, mixed from its coordinates (splitmix64)
+        // rather than tabled, so every state of every board size agrees
+        static long key(int kind, int snake, int value) {
+            long z = ((long) kind << 56 | (long) snake << 40 | (value + 1L)) * 0x9E3779B97F4A7C15L;
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            return z ^ (z >>> 31);
+        }
+
+        long computeHash() {
+            long h = apple >= 0 ? key(K_APPLE, 0, apple) : 0;
+            for (int i = 0; i < n; i++) {
+                if (!alive[i])
+                    continue;
+                h ^= key(K_HEAD, i, head(i)) ^ key(K_GROWTH, i, growth[i]);
+                for (int k = 0; k < len[i]; k++)
+                    h ^= key(K_BODY, i, body[i][(headSlot[i] + k) & mask]);
+            }
+            return h;
+        }
+
+        void copyFrom(SimState o) {
+            System.arraycopy(o.grid, 0, grid, 0, grid.length);
+            System.arraycopy(o.gridOwner, 0, gridOwner, 0, gridOwner.length);
+            for (int i = 0; i < n; i++) {
+                for (int k = 0; k < o.len[i]; k++)
+                    body[i][(o.headSlot[i] + k) & mask] = o.body[i][(o.headSlot[i] + k) & mask];
+            }
+            System.arraycopy(o.headSlot, 0, headSlot, 0, n);
+            System.arraycopy(o.len, 0, len, 0, n);
+            System.arraycopy(o.growth, 0, growth, 0, n);
+            System.arraycopy(o.kills, 0, kills, 0, n);
+            System.arraycopy(o.alive, 0, alive, 0, n);
+            apple = o.apple;
+            appleValue = o.appleValue;
+            hash = o.hash;
+            undoTop = 0;
+            movesTop = 0;
+        }
+
+        int head(int i) {
+            return body[i][headSlot[i]];
+        }
+
+        int neck(int i) {
+            return len[i] > 1 ? body[i][(headSlot[i] + 1) & mask] : -1;
+        }
+
+        int tail(int i) {
+            return body[i][(headSlot[i] + len[i] - 1) & mask];
+        }
+
+        // Cell one step from cell in direction dir, or -1 off the board
+        int neighbour(int cell, int dir) {
+            int x = cell % width + DX[dir], y = cell / width + DY[dir];
+            return (x < 0 || y < 0 || x >= width || y >= height) ? -1 : y * width + x;
+        }
+
+        // Direction snake i is facing, or -1 for a one-cell snake
+        int facing(int i) {
+            int neck = neck(i);
+            if (neck < 0)
+                return -1;
+            int head = head(i);
+            int d = head - neck;
+            return d == -width ? 0 : d == width ? 1 : d == -1 ? 2 : 3;
+        }
+
+        // Non-reversing moves of snake i that are not immediately fatal,
+        // straight ahead first; a single forced move if it has none. With
+        // all false only the first (default) move is returned.
+        int safeMoves(int i, boolean all, int[] out) {
+            int facing = facing(i);
+            int reverse = reverseOf(facing);
+            int head = head(i);
+            int count = 0;
+            for (int k = -1; k < 4; k++) {
+                int dir = k < 0 ? facing : k;
+                if (dir < 0 || (k >= 0 && dir == facing) || dir == reverse)
+                    continue;
+                int cell = neighbour(head, dir);
+                if (cell < 0 || (grid[cell] > 0 && !isVacatingTail(cell)))
+                    continue;
+                out[count++] = dir;
+                if (!all)
+                    return 1;
+            }
+            if (count == 0)
+                out[count++] = facing < 0 ? 0 : facing;
+            return count;
+        }
+
+        // On the board and empty, or a tail that moves away this step
+        boolean isOpen(int cell) {
+            return cell >= 0 && (grid[cell] == 0 || isVacatingTail(cell));
+        }
+
+        private boolean isVacatingTail(int cell) {
+            int owner = gridOwner[cell];
+            return grid[cell] == 1 && alive[owner] && growth[owner] == 0 && tail(owner) == cell;
+        }
+
+        static int reverseOf(int dir) {
+            return dir < 0 ? -1 : dir ^ 1;
+        }
+
+        // Applies one simultaneous move; dirs[i] is ignored for dead snakes.
+        // Tails retract first (unless growth is owed), then heads advance. A
+        // head that leaves the board or lands on an occupied cell dies; two
+        // heads on one cell both die, and a head hitting another body
+        // credits that snake with a kill.
+        void step(int[] dirs) {
+            if (undoTop + frameSize > undo.length)
+                undo = Arrays.copyOf(undo, undo.length * 2);
+            int f = undoTop;
+            undo[f] = apple;
+            undo[f + 1] = appleValue;
+            undo[f + 2] = (int) hash;
+            undo[f + 3] = (int) (hash >>> 32);
+
+            for (int i = 0; i < n; i++) {
+                int o = f + HEADER + SNAKE_FRAME * i;
+                undo[o + F_ALIVE] = alive[i] ? 1 : 0;
+                undo[o + F_TAIL] = -1;
+                undo[o + F_GROWTH] = growth[i];
+                undo[o + F_KILLS] = kills[i];
+                undo[o + F_HEAD] = -1;
+                undo[o + F_OWNER] = -1;
+                undo[o + F_DIED] = 0;
+                undo[o + F_SHRINK] = 0;
+                if (!alive[i])
+                    continue;
+
+                newHead[i] = neighbour(head(i), dirs[i]);
+                if (growth[i] > 0) {
+                    hash ^= key(K_GROWTH, i, growth[i]) ^ key(K_GROWTH, i, growth[i] - 1);
+                    growth[i]--;
+                } else {
+                    int tail = tail(i);
+                    grid[tail]--;
+                    len[i]--;
+                    undo[o + F_TAIL] = tail;
+                    hash ^= key(K_BODY, i, tail);
+                }
+            }
+
+            for (int i = 0; i < n; i++) {
+                if (!alive[i] || newHead[i] < 0)
+                    continue;
+                int cell = newHead[i];
+                hash ^= key(K_HEAD, i, head(i)) ^ key(K_HEAD, i, cell) ^ key(K_BODY, i, cell);
+                headSlot[i] = (headSlot[i] - 1) & mask;
+                body[i][headSlot[i]] = cell;
+                len[i]++;
+                grid[cell]++;
+                undo[f + HEADER + SNAKE_FRAME * i + F_HEAD] = cell;
+            }
+
+            for (int i = 0; i < n; i++) {
+                if (!alive[i])
+                    continue;
+                int cell = newHead[i];
+                boolean dies = cell < 0;
+                if (!dies && grid[cell] > 1) {
+                    dies = true;
+                    boolean headOn = false;
+                    for (int j = 0; j < n; j++) {
+                        if (j != i && alive[j] && newHead[j] == cell)
+                            headOn = true;
+                    }
+                    int owner = gridOwner[cell];
+                    if (!headOn && owner != i)
+                        kills[owner]++;
+                }
+                if (dies)
+                    undo[f + HEADER + SNAKE_FRAME * i + F_DIED] = 1;
+            }
+
+            for (int i = 0; i < n; i++) {
+                int o = f + HEADER + SNAKE_FRAME * i;
+                if (undo[o + F_DIED] == 1) {
+                    alive[i] = false;
+                    hash ^= key(K_HEAD, i, head(i)) ^ key(K_GROWTH, i, growth[i]);
+                    for (int k = 0; k < len[i]; k++) {
+                        int cell = body[i][(headSlot[i] + k) & mask];
+                        grid[cell]--;
+                        hash ^= key(K_BODY, i, cell);
+                    }
+                } else if (alive[i]) {
+                    int cell = newHead[i];
+                    undo[o + F_OWNER] = gridOwner[cell];
+                    gridOwner[cell] = i;
+                }
+            }
+
+            for (int i = 0; i < n; i++) {
+                if (!alive[i] || newHead[i] != apple)
+                    continue;
+                if (appleValue > 0) {
+                    hash ^= key(K_GROWTH, i, growth[i]) ^ key(K_GROWTH, i, growth[i] + appleValue);
+                    growth[i] += appleValue;
+                } else if (appleValue < 0) {
+                    int shrink = Math.min(-appleValue, len[i] - 1);
+                    for (int k = 1; k <= shrink; k++) {
+                        int cell = body[i][(headSlot[i] + len[i] - k) & mask];
+                        grid[cell]--;
+                        hash ^= key(K_BODY, i, cell);
+                    }
+                    len[i] -= shrink;
+                    undo[f + HEADER + SNAKE_FRAME * i + F_SHRINK] = shrink;
+                }
+                hash ^= key(K_APPLE, 0, apple);
+                apple = -1;
+            }
+            undoTop = f + frameSize;
+        }
+
+        // Moves snake i alone one cell in dir, in O(1): its tail retracts
+        // unless growth is owed and its head advances. Collisions and apples
+        // are not resolved; callers check isOpen first if it matters. Frames
+        // stack separately from step(), so unmake them before undoing a step.
+        void makeMove(int i, int dir) {
+            if (movesTop + 4 > moves.length)
+                moves = Arrays.copyOf(moves, moves.length * 2);
+            int from = head(i);
+            int cell = neighbour(from, dir);
+            int tail = -1;
+            if (growth[i] > 0) {
+                hash ^= key(K_GROWTH, i, growth[i]) ^ key(K_GROWTH, i, growth[i] - 1);
+                growth[i]--;
+            } else {
+                tail = tail(i);
+                grid[tail]--;
+                len[i]--;
+                hash ^= key(K_BODY, i, tail);
+            }
+            hash ^= key(K_HEAD, i, from) ^ key(K_HEAD, i, cell) ^ key(K_BODY, i, cell);
+            headSlot[i] = (headSlot[i] - 1) & mask;
+            body[i][headSlot[i]] = cell;
+            len[i]++;
+            grid[cell]++;
+            moves[movesTop++] = i;
+            moves[movesTop++] = tail;
+            moves[movesTop++] = cell;
+            moves[movesTop++] = gridOwner[cell];
+            gridOwner[cell] = i;
+        }
+
+        // Reverts the most recent makeMove
+        void unmakeMove() {
+            int owner = moves[--movesTop];
+            int cell = moves[--movesTop];
+            int tail = moves[--movesTop];
+            int i = moves[--movesTop];
+            gridOwner[cell] = owner;
+            grid[cell]--;
+            len[i]--;
+            headSlot[i] = (headSlot[i] + 1) & mask;
+            hash ^= key(K_HEAD, i, head(i)) ^ key(K_HEAD, i, cell) ^ key(K_BODY, i, cell);
+            if (tail < 0) {
+                growth[i]++;
+                hash ^= key(K_GROWTH, i, growth[i]) ^ key(K_GROWTH, i, growth[i] - 1);
+            } else {
+                // the ring slot past the tail still holds the vacated cell
+                grid[tail]++;
+                len[i]++;
+                hash ^= key(K_BODY, i, tail);
+            }
+        }
+
+        // Reverts the most recent step
+        void undo() {
+            int f = undoTop - frameSize;
+            undoTop = f;
+            apple = undo[f];
+            appleValue = undo[f + 1];
+            hash = (undo[f + 2] & 0xFFFFFFFFL) | (long) undo[f + 3] << 32;
+            for (int i = 0; i < n; i++) {
+                int o = f + HEADER + SNAKE_FRAME * i;
+                if (undo[o + F_ALIVE] == 0)
+                    continue;
+
+                int shrink = undo[o + F_SHRINK];
+                for (int k = 0; k < shrink; k++)
+                    grid[body[i][(headSlot[i] + len[i] + k) & mask]]++;
+                len[i] += shrink;
+
+                if (undo[o + F_DIED] == 1) {
+                    alive[i] = true;
+                    for (int k = 0; k < len[i]; k++)
+                        grid[body[i][(headSlot[i] + k) & mask]]++;
+                } else {
+                    gridOwner[undo[o + F_HEAD]] = undo[o + F_OWNER];
+                }
+
+                if (undo[o + F_HEAD] >= 0) {
+                    grid[undo[o + F_HEAD]]--;
+                    headSlot[i] = (headSlot[i] + 1) & mask;
+                    len[i]--;
+                }
+                int tail = undo[o + F_TAIL];
+                if (tail >= 0) {
+                    len[i]++;
+                    grid[tail]++;
+                }
+                growth[i] = undo[o + F_GROWTH];
+                kills[i] = undo[o + F_KILLS];
+            }
+        }
+    }
+
+    // Everything scoring a move writes: the board analysis it floods and
+    // caches in, the lookahead table, the deadline check and a countSpace
+    // tally. The agent scores with its own; parallel mode gives each pool
+    // thread one holding a private copy of the turn's board.
+    private static class ScoreScratch {
+        BoardAnalysis board;
+        final TranspositionTable lookahead = new TranspositionTable(TT_BITS);
+        boolean aborted;
+        int clockCountdown = CLOCK_CHECK_INTERVAL;
+        int countSpaceCalls;
+        int turn = -1; // turn the board copy and lookahead table are for
+
+        ScoreScratch(BoardAnalysis board) {
+            this.board = board;
+        }
+
+        // Reads the clock once every CLOCK_CHECK_INTERVAL calls; once the
+        // deadline passes, stays true until reset so the whole pass unwinds
+        boolean outOfTime(long deadline) {
+            if (aborted)
+                return true;
+            if (deadline == Long.MAX_VALUE || --clockCountdown > 0)
+                return false;
+            clockCountdown = CLOCK_CHECK_INTERVAL;
+            aborted = System.nanoTime() >= deadline;
+            return aborted;
+        }
+    }
+
+    // Fixed-size table of lookahead results keyed by Zobrist hash, each with
+    // the depth it was searched to, whether it is exact or a bound, and the
+    // best move found. Buckets hold two entries: the first keeps the deepest
+    // result, the second the newest one the first turned away or gave up.
+    // Entries from an earlier epoch count as empty, so starting a new turn or
+    // search costs nothing.
+    private static class TranspositionTable {
+        static final int EXACT = 0, LOWER = 1, UPPER = 2;
+        private static final int MAX_DEPTH = 63;
+
+        private final long[] keys;
+        private final int[] values;
+        // epoch << 10 | move << 8 | depth << 2 | bound; 0 marks an entry never written
+        private final int[] meta;
+        private final int bucketMask;
+        private int epoch = 1;
+        long probes, hits, stores, evictions;
+
+        TranspositionTable(int log2Entries) {
+            int entries = 1 << Math.max(1, log2Entries);
+            keys = new long[entries];
+            values = new int[entries];
+            meta = new int[entries];
+            bucketMask = (entries >>> 1) - 1;
+        }
+
+        void newEpoch() {
+            if (++epoch == 1 << 22) {
+                Arrays.fill(meta, 0);
+                epoch = 1;
+            }
+        }
+
+        // Entry holding key, or -1
+        int find(long key) {
+            probes++;
+            int b = bucket(key);
+            for (int e = b; e < b + 2; e++) {
+                if (keys[e] == key && isLive(e)) {
+                    hits++;
+                    return e;
+                }
+            }
+            return -1;
+        }
+
+        int value(int entry) {
+            return values[entry];
+        }
+
+        int depth(int entry) {
+            return meta[entry] >>> 2 & MAX_DEPTH;
+        }
+
+        int bound(int entry) {
+            return meta[entry] & 3;
+        }
+
+        int move(int entry) {
+            return meta[entry] >>> 8 & 3;
+        }
+
+        void store(long key, int depth, int bound, int value, int move) {
+            stores++;
+            int b = bucket(key);
+            int e = b + 1;
+            if (!isLive(b) || keys[b] == key || depth >= depth(b)) {
+                if (isLive(b) && keys[b] != key) {
+                    if (isLive(b + 1) && keys[b + 1] != key)
+                        evictions++;
+                    keys[b + 1] = keys[b];
+                    values[b + 1] = values[b];
+                    meta[b + 1] = meta[b];
+                }
+                e = b;
+            } else if (isLive(e) && keys[e] != key) {
+                evictions++;
+            }
+            keys[e] = key;
+            values[e] = value;
+            meta[e] = epoch << 10 | (move & 3) << 8 | Math.min(depth, MAX_DEPTH) << 2 | bound;
+        }
+
+        String summary() {
+            return probes + " probes, " + (probes == 0 ? 0 : hits * 100 / probes) + "% hits, " + stores
+                    + " stores, " + evictions + " evictions, " + keys.length + " entries";
+        }
+
+        private int bucket(long key) {
+            return ((int) (key ^ key >>> 32) & bucketMask) << 1;
+        }
+
+        private boolean isLive(int e) {
+            return meta[e] >>> 10 == epoch;
+        }
+    }
+
+    // Paranoid lookahead over simultaneous moves: we take the move whose
+    // worst case over the joint replies of nearby opponents is best. Distant
+    // opponents follow a fixed default move so the branching factor stays
+    // small. The root is split into one task per (our move, opponent joint
+    // move) pair on a shared pool, deepening one ply at a time until the
+    // deadline; an interrupted iteration is discarded.
+    private static class SimultaneousSearch {
+        static final int LOSS = -1_000_000;
+        private static final int MAX_DEPTH = 16;
+        private static final int SPACE_CAP = 128;
+        private static final long DEADLINE_MARGIN_NANOS = 5_000_000L;
+        private static final int CLOCK_CHECK_INTERVAL = 32;
+
+        private final SimState root;
+        private final ThreadLocal<Worker> workers;
+        private final int n;
+        private final int[][] rootOptions;
+        private final int[] rootOptionCount, rootChoice;
+        private final int[] rootScore = new int[4];
+        private final int[] iterationScore = new int[4];
+        private final LongAdder nodeCount = new LongAdder();
+        private final LongAdder tableProbes = new LongAdder(), tableHits = new LongAdder();
+        // Workers start a fresh table epoch when they first see a new run
+        private int run;
+        // Opponent moves the model gives less than this chance are not searched
+        private static final double PRUNE_PROBABILITY = 0.1;
+        private final OpponentModel model;
+        private int me;
+        private long deadline;
+        private volatile boolean aborted;
+        int depthReached;
+        long nodes, elapsedNanos, probes, hits;
+
+        SimultaneousSearch(int width, int height, int nSnakes, OpponentModel model) {
+            n = nSnakes;
+            this.model = model;
+            root = new SimState(width, height, nSnakes);
+            workers = ThreadLocal.withInitial(() -> new Worker(width, height, nSnakes));
+            rootOptions = new int[nSnakes][4];
+            rootOptionCount = new int[nSnakes];
+            rootChoice = new int[nSnakes];
+        }
+
+        void run(Snake[] all, int myIdx, int appleCell, int appleValue, long turnDeadline) {
+            long start = System.nanoTime();
+            root.load(all, appleCell, appleValue);
+            me = myIdx;
+            deadline = turnDeadline - DEADLINE_MARGIN_NANOS;
+            aborted = false;
+            depthReached = 0;
+            run++;
+            Arrays.fill(rootScore, LOSS);
+
+            if (root.alive[me]) {
+                for (int depth = 1; depth <= MAX_DEPTH && System.nanoTime() < deadline; depth++) {
+                    if (!searchRoot(depth))
+                        break;
+                    System.arraycopy(iterationScore, 0, rootScore, 0, 4);
+                    depthReached = depth;
+                }
+            }
+            nodes = nodeCount.sumThenReset();
+            probes = tableProbes.sumThenReset();
+            hits = tableHits.sumThenReset();
+            elapsedNanos = System.nanoTime() - start;
+        }
+
+        // One full-width iteration; false if the deadline cut it short
+        private boolean searchRoot(int depth) {
+            int reverse = SimState.reverseOf(root.facing(me));
+            List<Callable<Integer>> tasks = new ArrayList<>();
+            List<Integer> taskMove = new ArrayList<>();
+            for (int i = 0; i < n; i++) {
+                if (i != me && root.alive[i])
+                    rootOptionCount[i] = opponentOptions(root, i, depth, rootOptions[i]);
+            }
+
+            for (int dir = 0; dir < 4; dir++) {
+                if (dir == reverse)
+                    continue;
+                Arrays.fill(rootChoice, 0);
+                do {
+                    int[] dirs = new int[n];
+                    for (int i = 0; i < n; i++) {
+                        if (i != me && root.alive[i])
+                            dirs[i] = rootOptions[i][rootChoice[i]];
+                    }
+                    dirs[me] = dir;
+                    tasks.add(() -> {
+                        Worker w = workers.get();
+                        if (w.tableRun != run) {
+                            w.table.newEpoch();
+                            w.tableRun = run;
+                        }
+                        w.state.copyFrom(root);
+                        w.state.step(dirs);
+                        int value = maxNode(w, depth - 1, 1, Integer.MIN_VALUE, Integer.MAX_VALUE);
+                        nodeCount.add(w.flushNodes());
+                        tableProbes.add(w.table.probes);
+                        tableHits.add(w.table.hits);
+                        w.table.probes = w.table.hits = 0;
+                        return value;
+                    });
+                    taskMove.add(dir);
+                } while (nextJoint(rootChoice, rootOptionCount, root));
+            }
+
+            Arrays.fill(iterationScore, Integer.MAX_VALUE);
+            List<Future<Integer>> results = SEARCH_POOL.invokeAll(tasks);
+            for (int t = 0; t < results.size(); t++) {
+                int value;
+                try {
+                    value = results.get(t).get();
+                } catch (InterruptedException | ExecutionException e) {
+                    return false;
+                }
+                int dir = taskMove.get(t);
+                iterationScore[dir] = Math.min(iterationScore[dir], value);
+            }
+            if (reverse >= 0)
+                iterationScore[reverse] = LOSS;
+            return !aborted;
+        }
+
+        private int maxNode(Worker w, int depth, int ply, int alpha, int beta) {
+            SimState s = w.state;
+            if (w.tick())
+                return 0;
+            if (!s.alive[me])
+                return LOSS + ply;
+            if (depth == 0)
+                return w.evaluate(me);
+
+            // A result searched deep enough settles the node; a shallower one
+            // from the previous iteration still says which move to try first
+            TranspositionTable table = w.table;
+            int[] moves = w.options[ply][me];
+            int count = s.safeMoves(me, true, moves);
+            int entry = table.find(s.hash);
+            if (entry >= 0) {
+                int value = table.value(entry), bound = table.bound(entry);
+                if (table.depth(entry) >= depth && (bound == TranspositionTable.EXACT
+                        || (bound == TranspositionTable.LOWER && value >= beta)
+                        || (bound == TranspositionTable.UPPER && value <= alpha)))
+                    return value;
+                for (int k = 1; k < count; k++) {
+                    if (moves[k] == table.move(entry)) {
+                        moves[k] = moves[0];
+                        moves[0] = table.move(entry);
+                    }
+                }
+            }
+
+            int best = Integer.MIN_VALUE, bestMove = moves[0];
+            int alphaIn = alpha;
+            for (int k = 0; k < count; k++) {
+                int value = minNode(w, moves[k], depth, ply, alpha, beta);
+                if (value > best) {
+                    best = value;
+                    bestMove = moves[k];
+                }
+                alpha = Math.max(alpha, value);
+                if (alpha >= beta || aborted)
+                    break;
+            }
+            if (!aborted) {
+                int bound = best <= alphaIn ? TranspositionTable.UPPER
+                        : best >= beta ? TranspositionTable.LOWER : TranspositionTable.EXACT;
+                table.store(s.hash, depth, bound, best, bestMove);
+            }
+            return best;
+        }
+
+        private int minNode(Worker w, int myDir, int depth, int ply, int alpha, int beta) {
+            SimState s = w.state;
+            int[][] opts = w.options[ply];
+            int[] count = w.optionCount[ply];
+            int[] choice = w.choice[ply];
+            int[] dirs = w.dirs[ply];
+            for (int i = 0; i < n; i++) {
+                if (i != me && s.alive[i])
+                    count[i] = opponentOptions(s, i, depth, opts[i]);
+            }
+
+            Arrays.fill(choice, 0);
+            int worst = Integer.MAX_VALUE;
+            do {
+                for (int i = 0; i < n; i++) {
+                    if (i != me && s.alive[i])
+                        dirs[i] = opts[i][choice[i]];
+                }
+                dirs[me] = myDir;
+                s.step(dirs);
+                int value = maxNode(w, depth - 1, ply + 1, alpha, beta);
+                s.undo();
+                worst = Math.min(worst, value);
+                beta = Math.min(beta, value);
+                if (beta <= alpha || aborted)
+                    break;
+            } while (nextJoint(choice, count, s));
+            return worst;
+        }
+
+        // Moves searched for opponent i: its safe moves if it branches, less
+        // those the opponent model finds unlikely (all of them if it finds
+        // every one unlikely)
+        private int opponentOptions(SimState s, int i, int depth, int[] out) {
+            int count = s.safeMoves(i, branches(s, i, depth), out);
+            int facing = s.facing(i);
+            if (count <= 1 || facing < 0)
+                return count;
+
+            int context = model.context(s, i);
+            int kept = 0;
+            for (int k = 0; k < count; k++) {
+                if (model.probability(i, context, OpponentModel.relative(facing, out[k])) >= PRUNE_PROBABILITY)
+                    out[kept++] = out[k];
+            }
+            return kept > 0 ? kept : count;
+        }
+
+        // Opponents close enough to reach our head within the horizon branch
+        // over all their moves; the rest play their default move
+        private boolean branches(SimState s, int i, int depth) {
+            if (i == me)
+                return true;
+            int a = s.head(i), b = s.head(me);
+            int dist = Math.abs(a % s.width - b % s.width) + Math.abs(a / s.width - b / s.width);
+            return dist <= 2 * depth + 1;
+        }
+
+        private boolean nextJoint(int[] choice, int[] count, SimState s) {
+            for (int i = 0; i < n; i++) {
+                if (i == me || !s.alive[i])
+                    continue;
+                if (++choice[i] < count[i])
+                    return true;
+                choice[i] = 0;
+            }
+            return false;
+        }
+
+        int bestMove() {
+            if (depthReached == 0)
+                return -1;
+            int best = -1;
+            for (int dir = 0; dir < 4; dir++) {
+                if (best == -1 || rootScore[dir] > rootScore[best])
+                    best = dir;
+            }
+            return best;
+        }
+
+        // True if every line after this move loses against adversarial
+        // opponents within the searched horizon
+        boolean isForcedLoss(int move) {
+            return depthReached > 0 && move >= 0 && move < 4 && rootScore[move] <= LOSS / 2;
+        }
+
+        long nodesPerSecond() {
+            return elapsedNanos == 0 ? 0 : nodes * 1_000_000_000L / elapsedNanos;
+        }
+
+        // Per-thread scratch: a private state plus per-ply move buffers
+        private class Worker {
+            final SimState state;
+            final int[][][] options;
+            final int[][] optionCount, choice, dirs;
+            final int[] queue, seen;
+            final TranspositionTable table = new TranspositionTable(TT_BITS);
+            int tableRun;
+            int generation = 0;
+            long nodes = 0;
+            int clockCountdown = CLOCK_CHECK_INTERVAL;
+
+            Worker(int width, int height, int nSnakes) {
+                state = new SimState(width, height, nSnakes);
+                options = new int[MAX_DEPTH + 1][nSnakes][4];
+                optionCount = new int[MAX_DEPTH + 1][nSnakes];
+                choice = new int[MAX_DEPTH + 1][nSnakes];
+                dirs = new int[MAX_DEPTH + 1][nSnakes];
+                queue = new int[width * height];
+                seen = new int[width * height];
+            }
+
+            boolean tick() {
+                nodes++;
+                if (aborted)
+                    return true;
+                if (--clockCountdown > 0)
+                    return false;
+                clockCountdown = CLOCK_CHECK_INTERVAL;
+                if (System.nanoTime() >= deadline)
+                    aborted = true;
+                return aborted;
+            }
+
+            long flushNodes() {
+                long count = nodes;
+                nodes = 0;
+                return count;
+            }
+
+            // Length, kills, dead rivals, reachable space (capped) and
+            // closeness to a positive apple, from snake i's point of view
+            int evaluate(int i) {
+                SimState s = state;
+                int head = s.head(i);
+                int length = s.len[i] + s.growth[i];
+                int score = length * 100 + s.kills[i] * 50;
+                for (int j = 0; j < n; j++) {
+                    if (j != i && !s.alive[j])
+                        score += 200;
+                }
+                int space = reachable(head, SPACE_CAP);
+                score += space * 20;
+                if (space < Math.min(length, SPACE_CAP))
+                    score -= 5000;
+                if (s.apple >= 0 && s.appleValue > 0) {
+                    int dist = Math.abs(head % s.width - s.apple % s.width) + Math.abs(head / s.width - s.apple / s.width);
+                    score -= dist * 2;
+                }
+                return score;
+            }
+
+            private int reachable(int from, int cap) {
+                SimState s = state;
+                generation++;
+                seen[from] = generation;
+                int qHead = 0, qTail = 0, count = 0;
+                queue[qTail++] = from;
+                while (qHead < qTail && count < cap) {
+                    int cell = queue[qHead++];
+                    for (int dir = 0; dir < 4; dir++) {
+                        int next = s.neighbour(cell, dir);
+                        if (next < 0 || seen[next] == generation || s.grid[next] > 0)
+                            continue;
+                        seen[next] = generation;
+                        queue[qTail++] = next;
+                        count++;
+                    }
+                }
+                return count;
+            }
+        }
+    }
+
+    // Monte Carlo tree search over simultaneous moves with decoupled UCT:
+    // every node keeps separate move statistics for each snake, each snake
+    // picks its own move by UCB1, and the joint move selects the child.
+    // Playouts follow a cheap default policy for a fixed number of plies and
+    // score each snake by survival, growth and kills. The state is never
+    // copied per playout; every step is undone on the way back to the root.
+    // Root parallel: each pool thread grows its own tree from the same root
+    // and the root statistics are summed.
+    private static class MctsSearch {
+        private static final int MAX_NODES = 1 << 14;
+        private static final int MAX_TREE_DEPTH = 64;
+        private static final int PLAYOUT_PLIES = 16;
+        private static final double EXPLORATION = 0.7;
+        private static final int CLOCK_CHECK_PLAYOUTS = 8;
+        private static final long DEADLINE_MARGIN_NANOS = 10_000_000L;
+        private static final int THREADS = Runtime.getRuntime().availableProcessors();
+
+        private final SimState root;
+        private final ThreadLocal<Worker> workers;
+        private final int n;
+        private final int[] rootLength, rootKills;
+        private static final double OVERRIDE_MARGIN = 0.05;
+        private final long[] rootVisits = new long[4];
+        private final double[] rootReward = new double[4];
+        private int me;
+        private long deadline, seed;
+        long playouts, elapsedNanos;
+
+        MctsSearch(int width, int height, int nSnakes) {
+            n = nSnakes;
+            root = new SimState(width, height, nSnakes);
+            workers = ThreadLocal.withInitial(() -> new Worker(width, height));
+            rootLength = new int[nSnakes];
+            rootKills = new int[nSnakes];
+        }
+
+        void run(Snake[] all, int myIdx, int appleCell, int appleValue, long turnDeadline, long turnSeed) {
+            long start = System.nanoTime();
+            root.load(all, appleCell, appleValue);
+            me = myIdx;
+            deadline = turnDeadline - DEADLINE_MARGIN_NANOS;
+            seed = turnSeed;
+            for (int i = 0; i < n; i++) {
+                rootLength[i] = root.len[i] + root.growth[i];
+                rootKills[i] = root.kills[i];
+            }
+            Arrays.fill(rootVisits, 0);
+            Arrays.fill(rootReward, 0);
+            playouts = 0;
+
+            if (root.alive[me]) {
+                // Each task returns a copy of its root counts, as one thread may run two tasks
+                List<Callable<double[]>> tasks = new ArrayList<>();
+                for (int task = 0; task < THREADS; task++) {
+                    long taskSeed = seed * 31 + task;
+                    tasks.add(() -> workers.get().search(taskSeed));
+                }
+                for (Future<double[]> result : SEARCH_POOL.invokeAll(tasks)) {
+                    double[] counts;
+                    try {
+                        counts = result.get();
+                    } catch (InterruptedException | ExecutionException e) {
+                        continue;
+                    }
+                    for (int dir = 0; dir < 4; dir++) {
+                        rootVisits[dir] += (long) counts[dir];
+                        rootReward[dir] += counts[4 + dir];
+                    }
+                    playouts += (long) counts[8];
+                }
+            }
+            elapsedNanos = System.nanoTime() - start;
+        }
+
+        // Our most visited root move, or -1 if no playout finished
+        int bestMove() {
+            int best = -1;
+            for (int dir = 0; dir < 4; dir++) {
+                if (rootVisits[dir] > 0 && (best == -1 || rootVisits[dir] > rootVisits[best]))
+                    best = dir;
+            }
+            return best;
+        }
+
+        // True if move was never tried (it is fatal) or its mean playout
+        // reward is below best's by more than OVERRIDE_MARGIN
+        boolean isClearlyWorse(int move, int best) {
+            if (move < 0 || move > 3 || rootVisits[move] == 0)
+                return true;
+            return rootReward[best] / rootVisits[best] - rootReward[move] / rootVisits[move] > OVERRIDE_MARGIN;
+        }
+
+        long playoutsPerSecond() {
+            return elapsedNanos == 0 ? 0 : playouts * 1_000_000_000L / elapsedNanos;
+        }
+
+        // One tree in flat arrays. Node statistics are indexed
+        // (node * n + snake) * 4 + dir; children are a sibling list keyed by
+        // the joint move, two bits per snake.
+        private class Worker {
+            final SimState state;
+            final int[] visits = new int[MAX_NODES];
+            final int[] firstChild = new int[MAX_NODES], nextSibling = new int[MAX_NODES];
+            final int[] jointKey = new int[MAX_NODES];
+            final int[] moveVisits = new int[MAX_NODES * n * 4];
+            final float[] moveReward = new float[MAX_NODES * n * 4];
+            final int[] pathNode = new int[MAX_TREE_DEPTH + 1];
+            final int[][] pathDirs = new int[MAX_TREE_DEPTH][n];
+            final int[] dirs = new int[n], moves = new int[4];
+            final float[] reward = new float[n];
+            int nodeCount;
+            long rng;
+
+            Worker(int width, int height) {
+                state = new SimState(width, height, n);
+            }
+
+            // Grows the tree until the deadline; returns our root visit counts
+            // and reward sums per direction followed by the playout count
+            double[] search(long taskSeed) {
+                state.copyFrom(root);
+                rng = taskSeed == 0 ? 1 : taskSeed;
+                nodeCount = 0;
+                newNode(-1);
+                long count = 0;
+                while (count % CLOCK_CHECK_PLAYOUTS != 0 || System.nanoTime() < deadline) {
+                    iterate();
+                    count++;
+                }
+                double[] out = new double[9];
+                for (int dir = 0; dir < 4; dir++) {
+                    out[dir] = moveVisits[me * 4 + dir];
+                    out[4 + dir] = moveReward[me * 4 + dir];
+                }
+                out[8] = count;
+                return out;
+            }
+
+            // Selection down to a new leaf, one playout, then backpropagation
+            private void iterate() {
+                int node = 0, depth = 0;
+                boolean expanded = false;
+                while (!expanded && node >= 0 && depth < MAX_TREE_DEPTH && state.alive[me]) {
+                    pathNode[depth] = node;
+                    int key = select(node, pathDirs[depth]);
+                    state.step(pathDirs[depth]);
+                    depth++;
+                    int child = findChild(node, key);
+                    if (child < 0) {
+                        expanded = true;
+                        child = nodeCount < MAX_NODES ? newNode(node) : -1;
+                        if (child >= 0)
+                            jointKey[child] = key;
+                    }
+                    node = child;
+                }
+
+                int plies = playout();
+                for (int i = 0; i < n; i++)
+                    reward[i] = score(i);
+                for (int k = 0; k < plies + depth; k++)
+                    state.undo();
+
+                // node is the new leaf, or -1 once the tree is full
+                if (node >= 0)
+                    visits[node]++;
+                for (int d = 0; d < depth; d++) {
+                    visits[pathNode[d]]++;
+                    int base = pathNode[d] * n * 4;
+                    for (int i = 0; i < n; i++) {
+                        int dir = pathDirs[d][i];
+                        if (dir < 0)
+                            continue;
+                        moveVisits[base + i * 4 + dir]++;
+                        moveReward[base + i * 4 + dir] += reward[i];
+                    }
+                }
+            }
+
+            // Each living snake's UCB1 move at node into dirs (-1 if dead);
+            // returns the joint move key
+            private int select(int node, int[] dirs) {
+                int base = node * n * 4;
+                double logVisits = Math.log(visits[node] + 1);
+                int key = 0;
+                for (int i = 0; i < n; i++) {
+                    if (!state.alive[i]) {
+                        dirs[i] = -1;
+                        continue;
+                    }
+                    int count = state.safeMoves(i, true, moves);
+                    int best = moves[0];
+                    double bestValue = Double.NEGATIVE_INFINITY;
+                    for (int k = 0; k < count; k++) {
+                        int dir = moves[k];
+                        int v = moveVisits[base + i * 4 + dir];
+                        if (v == 0) {
+                            best = dir;
+                            break;
+                        }
+                        double value = moveReward[base + i * 4 + dir] / v + EXPLORATION * Math.sqrt(logVisits / v);
+                        if (value > bestValue) {
+                            bestValue = value;
+                            best = dir;
+                        }
+                    }
+                    dirs[i] = best;
+                    key |= best << (2 * i);
+                }
+                return key;
+            }
+
+            // Default policy: take a positive apple next to the head, else
+            // usually keep going straight, else any move that is not fatal
+            private int playout() {
+                int plies = 0;
+                while (plies < PLAYOUT_PLIES && state.alive[me]) {
+                    for (int i = 0; i < n; i++) {
+                        if (state.alive[i])
+                            dirs[i] = defaultMove(i);
+                    }
+                    state.step(dirs);
+                    plies++;
+                }
+                return plies;
+            }
+
+            private int defaultMove(int i) {
+                int count = state.safeMoves(i, true, moves);
+                if (state.apple >= 0 && state.appleValue > 0) {
+                    int head = state.head(i);
+                    for (int k = 0; k < count; k++) {
+                        if (state.neighbour(head, moves[k]) == state.apple)
+                            return moves[k];
+                    }
+                }
+                if (count == 1 || nextInt(4) != 0)
+                    return moves[0];
+                return moves[nextInt(count)];
+            }
+
+            // 0 for a dead snake, otherwise 0.6 moved by length and kills gained
+            private float score(int i) {
+                if (!state.alive[i])
+                    return 0f;
+                int gain = state.len[i] + state.growth[i] - rootLength[i] + 3 * (state.kills[i] - rootKills[i]);
+                return 0.6f + 0.04f * Math.max(-10, Math.min(10, gain));
+            }
+
+            private int findChild(int node, int key) {
+                for (int c = firstChild[node]; c >= 0; c = nextSibling[c]) {
+                    if (jointKey[c] == key)
+                        return c;
+                }
+                return -1;
+            }
+
+            private int newNode(int parent) {
+                int node = nodeCount++;
+                visits[node] = 0;
+                firstChild[node] = -1;
+                Arrays.fill(moveVisits, node * n * 4, (node + 1) * n * 4, 0);
+                Arrays.fill(moveReward, node * n * 4, (node + 1) * n * 4, 0f);
+                if (parent >= 0) {
+                    nextSibling[node] = firstChild[parent];
+                    firstChild[parent] = node;
+                }
+                return node;
+            }
+
+            private int nextInt(int bound) {
+                rng ^= rng << 13;
+                rng ^= rng >>> 7;
+                rng ^= rng << 17;
+                return (int) ((rng >>> 33) % bound);
+            }
+        }
+    }
+
+    // Reusable breadth-first search over the occupancy grid. All buffers are
+    // sized once per game and visited marks are generation stamps, so a search
+    // never clears or allocates anything.
+    private static class BfsEngine {
+        private static final int[] DX = { 0, 0, -1, 1 };
+        private static final int[] DY = { -1, 1, 0, 0 };
+
+        final int width, height;
+        final int[] expiry;
+        // Each cell is enqueued at most once per search, so head/tail never wrap
+        final int[] queue;
+        final int[] seen;
+        final int[] parent;
+        final int[] dist;
+        final int[] path;
+        int generation = 0;
+
+        BfsEngine(int width, int height, int[] expiry) {
+            this.width = width;
+            this.height = height;
+            this.expiry = expiry;
+            int cells = width * height;
+            queue = new int[cells];
+            seen = new int[cells];
+            parent = new int[cells];
+            dist = new int[cells];
+            path = new int[cells];
+        }
+
+        int nextGeneration() {
+            if (++generation == Integer.MAX_VALUE) {
+                Arrays.fill(seen, 0);
+                generation = 1;
+            }
+            return generation;
+        }
+
+        // Breadth-first search from start to goal, filling parent. A cell is
+        // entered only once it has expired by the turn we would arrive; one
+        // still occupied stays unseen, so a longer route may reach it later.
+        // Returns whether goal was reached.
+        boolean search(int start, int goal) {
+            int gen = nextGeneration();
+            int head = 0, tail = 0;
+            queue[tail++] = start;
+            seen[start] = gen;
+            dist[start] = 0;
+
+            while (head < tail) {
+                int cur = queue[head++];
+                if (cur == goal)
+                    return true;
+                int x = cur % width, y = cur / width, arrive = dist[cur] + 1;
+                for (int d = 0; d < 4; d++) {
+                    int nx = x + DX[d], ny = y + DY[d];
+                    if (nx < 0 || ny < 0 || nx >= width || ny >= height)
+                        continue;
+                    int next = ny * width + nx;
+                    if (seen[next] == gen || expiry[next] > arrive)
+                        continue;
+                    seen[next] = gen;
+                    parent[next] = cur;
+                    dist[next] = arrive;
+                    queue[tail++] = next;
+                }
+            }
+            return false;
+        }
+
+        // Cells reachable from start (itself included) when we stand on it
+        // at turn t0, entering each cell only once it has expired. The first
+        // blockedCount cells of blocked are walls, e.g. the body we leave
+        // behind on a path. Stops counting at cap.
+        int timedSpace(int start, int t0, int[] blocked, int blockedCount, int cap) {
+            int gen = nextGeneration();
+            for (int k = 0; k < blockedCount; k++)
+                seen[blocked[k]] = gen;
+            int head = 0, tail = 0;
+            queue[tail++] = start;
+            seen[start] = gen;
+            dist[start] = t0;
+
+            while (head < tail && tail < cap) {
+                int cur = queue[head++];
+                int x = cur % width, y = cur / width, arrive = dist[cur] + 1;
+                for (int d = 0; d < 4; d++) {
+                    int nx = x + DX[d], ny = y + DY[d];
+                    if (nx < 0 || ny < 0 || nx >= width || ny >= height)
+                        continue;
+                    int next = ny * width + nx;
+                    if (seen[next] == gen || expiry[next] > arrive)
+                        continue;
+                    seen[next] = gen;
+                    dist[next] = arrive;
+                    queue[tail++] = next;
+                }
+            }
+            return Math.min(tail, cap);
+        }
+
+        int reconstruct(int start, int goal) {
+            return reconstruct(parent, start, goal, path);
+        }
+
+        // Copies the parent chain from goal back to start into path; returns its length
+        static int reconstruct(int[] parent, int start, int goal, int[] path) {
+            int len = 0;
+            for (int cur = goal; cur != start; cur = parent[cur])
+                len++;
+            int i = len;
+            for (int cur = goal; cur != start; cur = parent[cur])
+                path[i--] = cur;
+            path[0] = start;
+            return len + 1;
+        }
+    }
+
+    // Free-cell connected components, labelled once per turn. A whole-board
+    // labelling costs about one flood fill, after which region size and
+    // connectivity queries are array reads.
+    private static class RegionIndex {
+        private static final int[] DX = { 0, 0, -1, 1 };
+        private static final int[] DY = { -1, 1, 0, 0 };
+
+        final int width, height;
+        final int[] occupancy;
+        final int[] label; // 0 = wall, otherwise index into regionSize
+        int[] regionSize;
+        int regionCount;
+        private final int[] queue;
+
+        RegionIndex(int width, int height, int[] occupancy) {
+            this.width = width;
+            this.height = height;
+            this.occupancy = occupancy;
+            label = new int[width * height];
+            regionSize = new int[16];
+            queue = new int[width * height];
+        }
+
+        // Labels every free cell. Non-tail segments are walls, and so is the
+        // tail of wallOwner (our own tail when counting our space).
+        void build(int wallOwner) {
+            int ownerTag = (wallOwner + 1) << OCC_OWNER_SHIFT;
+            int cells = width * height;
+            for (int c = 0; c < cells; c++) {
+                label[c] = isWall(occupancy[c], ownerTag) ? 0 : -1;
+            }
+
+            regionCount = 0;
+            for (int c = 0; c < cells; c++) {
+                if (label[c] != -1)
+                    continue;
+                int id = ++regionCount;
+                if (id >= regionSize.length)
+                    regionSize = Arrays.copyOf(regionSize, regionSize.length * 2);
+
+                int head = 0, tail = 0;
+                queue[tail++] = c;
+                label[c] = id;
+                while (head < tail) {
+                    int cur = queue[head++];
+                    int x = cur % width, y = cur / width;
+                    for (int d = 0; d < 4; d++) {
+                        int nx = x + DX[d], ny = y + DY[d];
+                        if (nx < 0 || ny < 0 || nx >= width || ny >= height)
+                            continue;
+                        int next = ny * width + nx;
+                        if (label[next] == -1) {
+                            label[next] = id;
+                            queue[tail++] = next;
+                        }
+                    }
+                }
+                regionSize[id] = tail;
+            }
+        }
+
+        private static boolean isWall(int occ, int ownerTag) {
+            return (occ & OCC_TTL_MASK) > 1 || (occ != 0 && (occ & ~OCC_TTL_MASK) == ownerTag);
+        }
+
+        // Cells reachable from cell, counting the cell itself. A wall cell
+        // (such as our head) reaches the union of its neighbouring regions.
+        int spaceAt(int cell) {
+            int id = label[cell];
+            if (id > 0)
+                return regionSize[id];
+
+            int x = cell % width, y = cell / width;
+            int total = 1;
+            int seen0 = 0, seen1 = 0, seen2 = 0;
+            for (int d = 0; d < 4; d++) {
+                int nx = x + DX[d], ny = y + DY[d];
+                if (nx < 0 || ny < 0 || nx >= width || ny >= height)
+                    continue;
+                int n = label[ny * width + nx];
+                if (n <= 0 || n == seen0 || n == seen1 || n == seen2)
+                    continue;
+                total += regionSize[n];
+                if (seen0 == 0)
+                    seen0 = n;
+                else if (seen1 == 0)
+                    seen1 = n;
+                else
+                    seen2 = n;
+            }
+            return total;
+        }
+
+        boolean connected(int a, int b) {
+            return label[a] > 0 && label[a] == label[b];
+        }
+    }
+
+    // Articulation cells of the free-cell graph reachable from our head, by
+    // Tarjan's depth-first search from each free neighbour of the head. A
+    // cell whose subtree has no back edge above its parent can only be left
+    // through that parent, so once we pass the parent it is a dead end of
+    // the subtree's size. Built lazily, at most once per board.
+    private static class CutIndex {
+        private static final int[] DX = { 0, 0, -1, 1 };
+        private static final int[] DY = { -1, 1, 0, 0 };
+
+        final int width, height;
+        final int[] occupancy;
+        // Per visited cell: discovery time, lowest reachable discovery time,
+        // DFS parent (root = our head), subtree size and DFS children
+        private final int[] disc, low, parent, size, children;
+        // Space behind the head neighbour the cell hangs off, and the size of
+        // the innermost dead end holding the cell
+        private final int[] region, pocket;
+        private final int[] order, stack, nextDir, seen, cutStamp;
+        private int gen, visited, root = -1;
+
+        CutIndex(int width, int height, int[] occupancy) {
+            this.width = width;
+            this.height = height;
+            this.occupancy = occupancy;
+            int cells = width * height;
+            disc = new int[cells];
+            low = new int[cells];
+            parent = new int[cells];
+            size = new int[cells];
+            children = new int[cells];
+            region = new int[cells];
+            pocket = new int[cells];
+            order = new int[cells];
+            stack = new int[cells];
+            nextDir = new int[cells];
+            seen = new int[cells];
+            cutStamp = new int[cells];
+        }
+
+        // Walls as in RegionIndex, with wallOwner's tail walled too
+        void build(int head, int wallOwner) {
+            gen++;
+            visited = 0;
+            root = head;
+            if (head < 0)
+                return;
+            int ownerTag = (wallOwner + 1) << OCC_OWNER_SHIFT;
+            int hx = head % width, hy = head / width;
+            for (int d = 0; d < 4; d++) {
+                int nx = hx + DX[d], ny = hy + DY[d];
+                if (nx < 0 || ny < 0 || nx >= width || ny >= height)
+                    continue;
+                int start = ny * width + nx;
+                if (seen[start] != gen && !RegionIndex.isWall(occupancy[start], ownerTag))
+                    search(start, ownerTag);
+            }
+
+            // Pre-order, so each parent is settled before its children
+            for (int i = 0; i < visited; i++) {
+                int u = order[i], p = parent[u];
+                if (p == root) {
+                    region[u] = pocket[u] = size[u];
+                } else {
+                    region[u] = region[p];
+                    pocket[u] = isArticulation(p) && low[u] >= disc[p] ? size[u] : pocket[p];
+                }
+            }
+        }
+
+        private void search(int start, int ownerTag) {
+            int sp = 0;
+            visit(start, root);
+            stack[sp++] = start;
+            while (sp > 0) {
+                int u = stack[sp - 1];
+                if (nextDir[u] < 4) {
+                    int d = nextDir[u]++;
+                    int nx = u % width + DX[d], ny = u / width + DY[d];
+                    if (nx < 0 || ny < 0 || nx >= width || ny >= height)
+                        continue;
+                    int v = ny * width + nx;
+                    if (seen[v] != gen) {
+                        if (RegionIndex.isWall(occupancy[v], ownerTag))
+                            continue;
+                        visit(v, u);
+                        children[u]++;
+                        stack[sp++] = v;
+                    } else if (v != parent[u] && disc[v] < low[u]) {
+                        low[u] = disc[v];
+                    }
+                    continue;
+                }
+
+                sp--;
+                int p = parent[u];
+                if (p == root) {
+                    if (children[u] >= 2)
+                        cutStamp[u] = gen;
+                    continue;
+                }
+                if (low[u] < low[p])
+                    low[p] = low[u];
+                size[p] += size[u];
+                if (low[u] >= disc[p] && parent[p] != root)
+                    cutStamp[p] = gen;
+            }
+        }
+
+        private void visit(int cell, int from) {
+            seen[cell] = gen;
+            disc[cell] = low[cell] = visited;
+            order[visited++] = cell;
+            parent[cell] = from;
+            size[cell] = 1;
+            children[cell] = 0;
+            nextDir[cell] = 0;
+        }
+
+        // Free cells reachable from cell without passing our head; 0 for
+        // cells the search never reached
+        int regionSize(int cell) {
+            return cell >= 0 && seen[cell] == gen ? region[cell] : 0;
+        }
+
+        // Cells left to us once we have stepped into cell from the head's
+        // side: the subtree behind the nearest articulation cell above it
+        int pocketSize(int cell) {
+            return cell >= 0 && seen[cell] == gen ? pocket[cell] : 0;
+        }
+
+        boolean isArticulation(int cell) {
+            return cell >= 0 && cutStamp[cell] == gen;
+        }
+    }
+
+    // Voronoi partition of the board: one breadth-first search from every
+    // head at once gives each cell to the snake that reaches it first. On a
+    // tie the longer snake wins, and equal lengths leave the cell contested
+    // (owned by nobody, and not expanded further). Non-tail segments are walls.
+    // Each cell also records which of our first moves reach it on a shortest
+    // path, so a candidate move's share of our territory is a lookup.
+    private static class TerritoryMap {
+        private static final int[] DX = { 0, 0, -1, 1 };
+        private static final int[] DY = { -1, 1, 0, 0 };
+        static final int NONE = -1, CONTESTED = -2;
+
+        final int width, height;
+        final int[] occupancy;
+        final int[] owner, dist; // dist is -1 where no head reaches
+        final int[] claimSize; // longest claimant, of the tied ones when contested
+        // Bit d set if our first move d starts a shortest path to the cell
+        final int[] via;
+        int[] owned = new int[0];
+        // Cells we own that first move d reaches on a shortest path
+        final int[] ownedVia = new int[4];
+        private final int[] queue;
+        private int builtIdx = -1;
+
+        TerritoryMap(int width, int height, int[] occupancy) {
+            this.width = width;
+            this.height = height;
+            this.occupancy = occupancy;
+            owner = new int[width * height];
+            dist = new int[width * height];
+            claimSize = new int[width * height];
+            via = new int[width * height];
+            queue = new int[width * height];
+        }
+
+        void invalidate() {
+            builtIdx = -1;
+        }
+
+        // Partitions the board from the heads, with first moves tracked for
+        // snake myIdx. Built once per board; later calls reuse it.
+        void build(int[] heads, int[] sizes, int myIdx) {
+            if (myIdx == builtIdx)
+                return;
+            builtIdx = myIdx;
+            if (owned.length != heads.length)
+                owned = new int[heads.length];
+            Arrays.fill(owned, 0);
+            Arrays.fill(ownedVia, 0);
+            Arrays.fill(owner, NONE);
+            Arrays.fill(dist, -1);
+            Arrays.fill(via, 0);
+
+            int myHead = heads[myIdx];
+            int head = 0, tail = 0;
+            for (int i = 0; i < heads.length; i++) {
+                int src = heads[i];
+                if (src < 0)
+                    continue;
+                if (dist[src] == -1) {
+                    dist[src] = 0;
+                    queue[tail++] = src;
+                }
+                claim(src, i, sizes[i]);
+            }
+
+            while (head < tail) {
+                int cur = queue[head++];
+                int who = owner[cur];
+                if (who < 0)
+                    continue;
+                owned[who]++;
+                if (who == myIdx) {
+                    for (int d = 0; d < 4; d++) {
+                        if ((via[cur] & (1 << d)) != 0)
+                            ownedVia[d]++;
+                    }
+                }
+                int x = cur % width, y = cur / width;
+                for (int d = 0; d < 4; d++) {
+                    int nx = x + DX[d], ny = y + DY[d];
+                    if (nx < 0 || ny < 0 || nx >= width || ny >= height)
+                        continue;
+                    int next = ny * width + nx;
+                    if ((occupancy[next] & OCC_TTL_MASK) > 1)
+                        continue;
+                    // Every predecessor is dequeued before next, so via is final by then
+                    int firstMoves = cur == myHead ? 1 << d : via[cur];
+                    if (dist[next] == -1) {
+                        dist[next] = dist[cur] + 1;
+                        queue[tail++] = next;
+                        claim(next, who, sizes[who]);
+                        if (who == myIdx)
+                            via[next] = firstMoves;
+                    } else if (dist[next] == dist[cur] + 1) {
+                        claim(next, who, sizes[who]);
+                        if (who == myIdx)
+                            via[next] |= firstMoves;
+                    }
+                }
+            }
+        }
+
+        private void claim(int cell, int snake, int size) {
+            int current = owner[cell];
+            if (current == snake)
+                return;
+            if (current == NONE || size > claimSize[cell]) {
+                owner[cell] = snake;
+                claimSize[cell] = size;
+            } else if (size == claimSize[cell]) {
+                owner[cell] = CONTESTED;
+            }
+        }
+    }
+
+    // Breadth-first path lengths from each head and from the apple, built on
+    // first use per board and source. Non-tail segments are walls: a wall
+    // cell gets the length of a path that reaches it, but is not expanded,
+    // so other heads and bodies have a distance too. -1 where no path reaches.
+    private static class DistanceField {
+        private static final int[] DX = { 0, 0, -1, 1 };
+        private static final int[] DY = { -1, 1, 0, 0 };
+
+        final int width, height;
+        final int[] occupancy;
+        // One slot per snake, then one for the apple
+        private final int[][] dist;
+        private final int[] builtFrom; // source cell each slot holds, -1 = stale
+        private final int[] queue;
+
+        DistanceField(int width, int height, int[] occupancy, int nSnakes) {
+            this.width = width;
+            this.height = height;
+            this.occupancy = occupancy;
+            dist = new int[nSnakes + 1][width * height];
+            builtFrom = new int[nSnakes + 1];
+            queue = new int[width * height];
+            invalidate();
+        }
+
+        void invalidate() {
+            Arrays.fill(builtFrom, -1);
+        }
+
+        // Path length from src (the source of slot) to cell
+        int distance(int slot, int src, int cell) {
+            if (src < 0 || cell < 0)
+                return -1;
+            if (builtFrom[slot] != src) {
+                build(dist[slot], src);
+                builtFrom[slot] = src;
+            }
+            return dist[slot][cell];
+        }
+
+        private void build(int[] d, int src) {
+            Arrays.fill(d, -1);
+            int head = 0, tail = 0;
+            d[src] = 0;
+            queue[tail++] = src;
+            while (head < tail) {
+                int cur = queue[head++];
+                int x = cur % width, y = cur / width, step = d[cur] + 1;
+                for (int dir = 0; dir < 4; dir++) {
+                    int nx = x + DX[dir], ny = y + DY[dir];
+                    if (nx < 0 || ny < 0 || nx >= width || ny >= height)
+                        continue;
+                    int next = ny * width + nx;
+                    if (d[next] != -1)
+                        continue;
+                    d[next] = step;
+                    if ((occupancy[next] & OCC_TTL_MASK) <= 1)
+                        queue[tail++] = next;
+                }
+            }
+        }
+    }
+
+    // Hamiltonian cycle stored as cell -> position and position -> cell, so
+    // successor and distance-along-cycle are O(1). Boards with an even side
+    // get a full cycle: row 0 left to right, a zigzag over columns 1.., and
+    // column 0 back up (transposed when only the width is even). An odd x odd
+    // board has no Hamiltonian cycle, so its corner (0, height - 1) is left
+    // out with position -1. Boards narrower than 2 get an empty cycle.
+    private static class HamiltonCycle {
+        final int size;
+        final int[] position, cellAt;
+        private final int width;
+        private int next = 0;
+
+        HamiltonCycle(int width, int height) {
+            this.width = width;
+            position = new int[width * height];
+            cellAt = new int[width * height];
+            Arrays.fill(position, -1);
+            if (width >= 2 && height >= 2) {
+                if (height % 2 == 0 || width % 2 != 0)
+                    build(width, height, false);
+                else
+                    build(height, width, true);
+            }
+            size = next;
+        }
+
+        // Lays the cycle out on a w x h grid; transposed swaps the axes
+        private void build(int w, int h, boolean transposed) {
+            for (int a = 0; a < w; a++)
+                add(a, 0, transposed);
+            int zigzagEnd = h % 2 == 0 ? h : h - 2;
+            for (int b = 1; b < zigzagEnd; b++) {
+                for (int i = 1; i < w; i++)
+                    add(b % 2 == 1 ? w - i : i, b, transposed);
+            }
+            int up = h - 1;
+            if (h % 2 != 0) {
+                // Odd x odd: cover the last two rows in vertical pairs, skipping (0, h - 1)
+                for (int a = w - 1; a >= 1; a--) {
+                    boolean down = (w - 1 - a) % 2 == 0;
+                    add(a, down ? h - 2 : h - 1, transposed);
+                    add(a, down ? h - 1 : h - 2, transposed);
+                }
+                up = h - 2;
+            }
+            for (int b = up; b >= 1; b--)
+                add(0, b, transposed);
+        }
+
+        private void add(int a, int b, boolean transposed) {
+            int cell = transposed ? a * width + b : b * width + a;
+            position[cell] = next;
+            cellAt[next++] = cell;
+        }
+
+        int successor(int cell) {
+            int p = position[cell] + 1;
+            return cellAt[p == size ? 0 : p];
+        }
+
+        // Steps forward along the cycle from cell a to cell b
+        int distance(int a, int b) {
+            int d = position[b] - position[a];
+            return d < 0 ? d + size : d;
+        }
+    }
+
+    // A* over the occupancy grid with an indexed binary heap (decrease-key, no
+    // duplicate entries) and flat per-cell arrays stamped by generation.
+    // Step costs come from stepCost, which the agent fills once per turn.
+    private static class AStarEngine {
+        private static final int[] DX = { 0, 0, -1, 1 };
+        private static final int[] DY = { -1, 1, 0, 0 };
+
+        final int width, height;
+        final int[] expiry;
+        final int[] stepCost;
+        final int[] path;
+        int expanded;
+
+        private final int[] g, f, h, parent, steps;
+        private final int[] heap, heapIndex;
+        private final int[] openGen, closedGen;
+        private int heapSize;
+        private int generation = 0;
+
+        AStarEngine(int width, int height, int[] expiry) {
+            this.width = width;
+            this.height = height;
+            this.expiry = expiry;
+            int cells = width * height;
+            stepCost = new int[cells];
+            path = new int[cells];
+            g = new int[cells];
+            f = new int[cells];
+            h = new int[cells];
+            parent = new int[cells];
+            steps = new int[cells];
+            heap = new int[cells];
+            heapIndex = new int[cells];
+            openGen = new int[cells];
+            closedGen = new int[cells];
+        }
+
+        // Lowest-cost path from start to goal, entering a cell only once it
+        // has expired by the step count we arrive with; returns the path
+        // length in path, 0 if unreachable
+        int search(int start, int goal) {
+            if (++generation == Integer.MAX_VALUE) {
+                Arrays.fill(openGen, 0);
+                Arrays.fill(closedGen, 0);
+                generation = 1;
+            }
+            int gen = generation;
+            int goalX = goal % width, goalY = goal / width;
+            heapSize = 0;
+            expanded = 0;
+
+            g[start] = 0;
+            steps[start] = 0;
+            push(start, 0, Math.abs(start % width - goalX) + Math.abs(start / width - goalY), gen);
+
+            while (heapSize > 0) {
+                int cur = pop();
+                closedGen[cur] = gen;
+                if (cur == goal)
+                    return BfsEngine.reconstruct(parent, start, goal, path);
+                expanded++;
+
+                int x = cur % width, y = cur / width;
+                for (int d = 0; d < 4; d++) {
+                    int nx = x + DX[d], ny = y + DY[d];
+                    if (nx < 0 || ny < 0 || nx >= width || ny >= height)
+                        continue;
+                    int next = ny * width + nx;
+                    if (closedGen[next] == gen || expiry[next] > steps[cur] + 1)
+                        continue;
+
+                    int tentativeG = g[cur] + stepCost[next];
+                    if (openGen[next] == gen) {
+                        if (tentativeG >= g[next])
+                            continue;
+                        g[next] = tentativeG;
+                        parent[next] = cur;
+                        steps[next] = steps[cur] + 1;
+                        f[next] = tentativeG + h[next];
+                        siftUp(heapIndex[next]);
+                    } else {
+                        g[next] = tentativeG;
+                        parent[next] = cur;
+                        steps[next] = steps[cur] + 1;
+                        push(next, tentativeG, Math.abs(nx - goalX) + Math.abs(ny - goalY), gen);
+                    }
+                }
+            }
+            return 0;
+        }
+
+        private void push(int cell, int gScore, int heuristic, int gen) {
+            openGen[cell] = gen;
+            h[cell] = heuristic;
+            f[cell] = gScore + heuristic;
+            heap[heapSize] = cell;
+            heapIndex[cell] = heapSize;
+            siftUp(heapSize++);
+        }
+
+        private int pop() {
+            int top = heap[0];
+            int last = heap[--heapSize];
+            if (heapSize > 0) {
+                heap[0] = last;
+                heapIndex[last] = 0;
+                siftDown(0);
+            }
+            return top;
+        }
+
+        // Orders by f, preferring the node closer to the goal on ties
+        private boolean before(int a, int b) {
+            return f[a] < f[b] || (f[a] == f[b] && h[a] < h[b]);
+        }
+
+        private void siftUp(int i) {
+            int cell = heap[i];
+            while (i > 0) {
+                int p = (i - 1) >> 1;
+                if (!before(cell, heap[p]))
+                    break;
+                heap[i] = heap[p];
+                heapIndex[heap[i]] = i;
+                i = p;
+            }
+            heap[i] = cell;
+            heapIndex[cell] = i;
+        }
+
+        private void siftDown(int i) {
+            int cell = heap[i];
+            while (true) {
+                int c = 2 * i + 1;
+                if (c >= heapSize)
+                    break;
+                if (c + 1 < heapSize && before(heap[c + 1], heap[c]))
+                    c++;
+                if (!before(heap[c], cell))
+                    break;
+                heap[i] = heap[c];
+                heapIndex[heap[i]] = i;
+                i = c;
+            }
+            heap[i] = cell;
+            heapIndex[cell] = i;
         }
     }
-}
\ No newline at end of file
+}